@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Collects per-operation latencies for a benchmark run and summarizes them as throughput and percentiles.
+ * Samples may be recorded from any number of threads.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class BenchmarkStats {
+    private final String          name;
+    private final ArrayList<Long> samples = new ArrayList<Long>();
+
+    private int  failures;
+    private long startNanos;
+    private long stopNanos;
+
+    public BenchmarkStats(@Nonnull String name) {
+        this.name = name;
+    }
+
+    /**
+     * Marks the start of the measured window. Throughput is calculated over the time between this call
+     * and {@link #stop()}.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        stopNanos = 0L;
+    }
+
+    public void stop() {
+        stopNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a successful operation that began at the specified {@link System#nanoTime()} value.
+     * @param operationStartNanos the nano time at which the operation started
+     */
+    public void record(long operationStartNanos) {
+        long latency = System.nanoTime() - operationStartNanos;
+
+        synchronized( samples ) {
+            samples.add(latency);
+        }
+    }
+
+    public void fail() {
+        synchronized( samples ) {
+            failures++;
+        }
+    }
+
+    public int getCount() {
+        synchronized( samples ) {
+            return samples.size();
+        }
+    }
+
+    public int getFailureCount() {
+        synchronized( samples ) {
+            return failures;
+        }
+    }
+
+    public long getElapsedMillis() {
+        long end = (stopNanos == 0L ? System.nanoTime() : stopNanos);
+
+        return (end - startNanos)/1000000L;
+    }
+
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    /**
+     * @param percentile the percentile to compute, between 0 and 100
+     * @return the latency in milliseconds at the specified percentile, or 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        ArrayList<Long> sorted;
+
+        synchronized( samples ) {
+            if( samples.isEmpty() ) {
+                return 0.0;
+            }
+            sorted = new ArrayList<Long>(samples);
+        }
+        Collections.sort(sorted);
+        int idx = (int)Math.ceil((percentile/100.0) * sorted.size()) - 1;
+
+        if( idx < 0 ) {
+            idx = 0;
+        }
+        else if( idx >= sorted.size() ) {
+            idx = sorted.size() - 1;
+        }
+        return sorted.get(idx)/1000000.0;
+    }
+
+    /**
+     * @return successful operations per second over the measured window
+     */
+    public double getPerSecond() {
+        long elapsed = getElapsedMillis();
+
+        if( elapsed <= 0L ) {
+            return 0.0;
+        }
+        return (getCount() * 1000.0)/elapsed;
+    }
+
+    /**
+     * Writes the summary of this run to the log of the specified test manager.
+     * @param tm the test manager for the running test
+     */
+    public void report(@Nonnull DaseinTestManager tm) {
+        tm.out(name + " Operations", getCount());
+        tm.out(name + " Failures", getFailureCount());
+        tm.out(name + " Duration (ms)", getElapsedMillis());
+        tm.out(name + " Ops/sec", String.format("%.2f", getPerSecond()));
+        tm.out(name + " p50 (ms)", String.format("%.2f", getPercentileMillis(50)));
+        tm.out(name + " p90 (ms)", String.format("%.2f", getPercentileMillis(90)));
+        tm.out(name + " p99 (ms)", String.format("%.2f", getPercentileMillis(99)));
+        tm.out(name + " Max (ms)", String.format("%.2f", getPercentileMillis(100)));
+    }
+}
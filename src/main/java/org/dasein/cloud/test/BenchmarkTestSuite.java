@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test;
+
+import org.dasein.cloud.test.identity.IAMBenchmarkTests;
+import org.dasein.cloud.test.network.DNSBenchmarkTests;
+import org.dasein.cloud.test.platform.MQBenchmarkTests;
+import org.dasein.cloud.test.platform.PushNotificationBenchmarkTests;
+import org.dasein.cloud.test.storage.ObjectStoreBenchmarkTests;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+/**
+ * Runs the throughput and scale benchmarks. These are kept out of {@link GlobalTestSuite} since they create
+ * far more resources than the functional tests. Benchmark sizes are controlled by the dasein.benchmark.*
+ * {@link System} properties, for example:
+ * <pre>
+ *     -Ddasein.benchmark.threads=20 -Ddasein.benchmark.dns.records=5000
+ * </pre>
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+        DNSBenchmarkTests.class,
+        IAMBenchmarkTests.class,
+        MQBenchmarkTests.class,
+        PushNotificationBenchmarkTests.class,
+        ObjectStoreBenchmarkTests.class
+})
+public class BenchmarkTestSuite {
+    @BeforeClass
+    static public void setup() {
+        DaseinTestManager.init();
+    }
+
+    @AfterClass
+    static public void teardown() {
+        DaseinTestManager.cleanUp();
+    }
+}
@@ -53,6 +53,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Consolidates and manages cloud resources shared across many different tests.
@@ -79,6 +84,20 @@ public class DaseinTestManager {
     static private Set<String>   exclusions;
     static private Set<String>   inclusions;
 
+    static private final String PREFETCH_CDN   = "cdn";
+    static private final String PREFETCH_RDBMS = "rdbms";
+    static private final String PREFETCH_VPN   = "vpn";
+
+    static private final HashMap<String,Future<String>> prefetches = new HashMap<>();
+    static private ExecutorService prefetcher;
+
+    static private final String LEASE_FIREWALL = "firewall";
+    static private final String LEASE_VLAN     = "vlan";
+    static private final String LEASE_VM       = "vm";
+
+    static private final FixtureLeases leases = new FixtureLeases(getIntSystemProperty("dasein.lease.wait", 120) * 1000L,
+            getIntSystemProperty("dasein.lease.max", 3), getIntSystemProperty("dasein.lease.timeout", 60) * 60000L);
+
     static private int  skipCount;
     static private int  testCount;
     static private long testStart;
@@ -270,6 +289,8 @@ public class DaseinTestManager {
             out(logger, null, "Included", (inclusions == null ? null : inclusions.toString()));
             out(logger, null, "Excluded", (exclusions == null ? null : exclusions.toString()));
 
+            prefetch(logger);
+
             APITrace.report("Init");
             APITrace.reset();
 
@@ -287,6 +308,106 @@ public class DaseinTestManager {
         }
     }
 
+    /**
+     * Checks whether a suite will run: either no dasein.inclusions are set, or the suite or one of its tests is named
+     * in them. Either way, a suite named in dasein.exclusions is not prefetched for.
+     * @param suite the simple class name of the suite
+     * @return true if the suite will run and is not excluded
+     */
+    static private boolean isSuiteIncluded(@Nonnull String suite) {
+        String s = suite.toLowerCase();
+
+        if( exclusions != null && exclusions.contains(s) ) {
+            return false;
+        }
+        if( inclusions == null ) {
+            return true;
+        }
+        for( String which : inclusions ) {
+            if( which.equals(s) || which.startsWith(s + ".") ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts provisioning the fixtures that take many minutes to become usable for the included suites that need them,
+     * so that they are ready by the time those suites run. Tests asking for these fixtures wait on the prefetch rather
+     * than provisioning a second copy.
+     */
+    static private void prefetch(@Nonnull Logger logger) {
+        prefetcher = Executors.newCachedThreadPool();
+        if( ciResources != null && isSuiteIncluded("StatefulCITests") ) {
+            // CI resources track their own provisioning run, which close() waits on
+            out(logger, null, "Prefetching", "CI");
+            ciResources.prepareTestCI();
+        }
+        if( platformResources != null && isSuiteIncluded("StatefulRDBMSTests") ) {
+            prefetch(logger, PREFETCH_RDBMS, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return platformResources.getTestRDBMSId(STATEFUL, true, DatabaseEngine.MYSQL);
+                }
+            });
+        }
+        if( networkResources != null && isSuiteIncluded("StatefulVpnTests") ) {
+            prefetch(logger, PREFETCH_VPN, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    // removeVpn is the only test that uses a shared VPN, all others create their own
+                    return networkResources.getTestVpnId(REMOVED, true, null);
+                }
+            });
+        }
+        if( platformResources != null && storageResources != null && isSuiteIncluded("StatefulCDNTests") ) {
+            prefetch(logger, PREFETCH_CDN, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    Blob origin = storageResources.getTestRootBucket("statefulCDN", true, null);
+
+                    if( origin == null ) {
+                        return null;
+                    }
+                    return platformResources.getTestDistributionId(STATEFUL, true, origin.getBucketName());
+                }
+            });
+        }
+    }
+
+    static private void prefetch(@Nonnull Logger logger, @Nonnull String key, @Nonnull Callable<String> task) {
+        out(logger, null, "Prefetching", key);
+        synchronized( prefetches ) {
+            prefetches.put(key, prefetcher.submit(task));
+        }
+    }
+
+    /**
+     * Waits for a prefetch to complete, if one was started.
+     * @param key the prefetched fixture
+     * @return the ID of the prefetched fixture, or null if it was not prefetched or the prefetch failed
+     */
+    static private @Nullable String awaitPrefetch(@Nonnull String key) {
+        Future<String> result;
+
+        synchronized( prefetches ) {
+            result = prefetches.get(key);
+        }
+        if( result == null ) {
+            return null;
+        }
+        try {
+            return result.get();
+        }
+        catch( ExecutionException e ) {
+            Logger.getLogger(DaseinTestManager.class).warn("Prefetch of " + key + " failed: " + e.getCause().getMessage());
+        }
+        catch( InterruptedException ignore ) {
+            // ignore
+        }
+        return null;
+    }
+
     static public void cleanUp() {
         System.out.println("Cleaning up, please wait...");
         Logger logger = Logger.getLogger(DaseinTestManager.class);
@@ -296,6 +417,13 @@ public class DaseinTestManager {
         logger.info("");
         logger.info("BEGIN Test Clean Up ------------------------------------------------------------------------------");
         try {
+            if( prefetcher != null ) {
+                // let prefetches finish so that whatever they provisioned is tracked and cleaned up below
+                awaitPrefetch(PREFETCH_CDN);
+                awaitPrefetch(PREFETCH_RDBMS);
+                awaitPrefetch(PREFETCH_VPN);
+                prefetcher.shutdown();
+            }
             APITrace.report("Clean Up");
             if( ciResources != null ) {
                 int count = ciResources.close();
@@ -414,6 +542,8 @@ public class DaseinTestManager {
     private String                  suite;
     private String                  userName = "";
 
+    private final ArrayList<FixtureLeases.Lease> heldLeases = new ArrayList<>();
+
     public DaseinTestManager(@Nonnull Class<?> testClass) {
         logger = Logger.getLogger(testClass);
         suite = testClass.getSimpleName();
@@ -471,6 +601,7 @@ public class DaseinTestManager {
     }
 
     public void end() {
+        releaseLeases();
         String[] calls = APITrace.listApis(provider.getProviderName(), provider.getCloudName());
 
         if( calls.length > 0 ) {
@@ -550,6 +681,9 @@ public class DaseinTestManager {
     }
 
     public @Nullable String getTestDistributionId(@Nonnull String label, boolean provisionIfNull, @Nullable String origin) {
+        if( label.equals(STATEFUL) ) {
+            awaitPrefetch(PREFETCH_CDN);
+        }
         return (platformResources == null ? null : platformResources.getTestDistributionId(label, provisionIfNull, origin));
     }
 
@@ -599,6 +733,10 @@ public class DaseinTestManager {
     }
 
     public @Nullable String getTestRDBMSId(@Nonnull String label, boolean provisionIfNull, @Nullable DatabaseEngine engine) {
+        if( label.equals(STATEFUL) ) {
+            // only the stateful database is prefetched, other labels have nothing to wait for
+            awaitPrefetch(PREFETCH_RDBMS);
+        }
         return (platformResources == null ? null : platformResources.getTestRDBMSId(label, provisionIfNull, engine));
     }
 
@@ -689,6 +827,107 @@ public class DaseinTestManager {
         return computeResources.getTestVmId(label, vmName, desiredState, provisionIfNull, preferredDataCenterId);
     }
 
+    /**
+     * Leases the stateful VM, or an additional instance if others hold it too long, for the duration of the current
+     * test. Tests that stop, pause or otherwise change the VM must lease it {@link FixtureLeases.Mode#EXCLUSIVE}.
+     * The lease is released by {@link #end()}.
+     * @param mode how the test uses the VM
+     * @param desiredState the state the VM should be in, or null to leave it as is
+     * @param preferredDataCenterId the data center in which to provision a missing VM
+     * @return the ID of the leased VM, or null if no lease was granted or the VM could not be provisioned
+     */
+    public @Nullable String leaseTestVMId(@Nonnull FixtureLeases.Mode mode, @Nullable VmState desiredState, @Nullable String preferredDataCenterId) {
+        String label = lease(LEASE_VM, mode);
+
+        return (label == null ? null : getTestVMId(label, desiredState, true, preferredDataCenterId));
+    }
+
+    /**
+     * Leases the stateful VLAN for the duration of the current test, see {@link #leaseTestVMId(FixtureLeases.Mode, VmState, String)}.
+     * @param mode how the test uses the VLAN
+     * @param preferredDataCenterId the data center in which to provision a missing VLAN
+     * @return the ID of the leased VLAN, or null if no lease was granted or the VLAN could not be provisioned
+     */
+    public @Nullable String leaseTestVLANId(@Nonnull FixtureLeases.Mode mode, @Nullable String preferredDataCenterId) {
+        String label = lease(LEASE_VLAN, mode);
+
+        return (label == null ? null : getTestVLANId(label, true, preferredDataCenterId));
+    }
+
+    /**
+     * Leases the stateful general firewall for the duration of the current test, see {@link #leaseTestVMId(FixtureLeases.Mode, VmState, String)}.
+     * @param mode how the test uses the firewall
+     * @return the ID of the leased firewall, or null if no lease was granted or the firewall could not be provisioned
+     */
+    public @Nullable String leaseTestGeneralFirewallId(@Nonnull FixtureLeases.Mode mode) {
+        String label = lease(LEASE_FIREWALL, mode);
+
+        return (label == null ? null : getTestGeneralFirewallId(label, true));
+    }
+
+    /**
+     * Leases the stateful VM on behalf of test resources that need it while provisioning something else. Unlike
+     * {@link #leaseTestVMId(FixtureLeases.Mode, VmState, String)}, the lease is not tied to the current test and
+     * must be handed back through {@link #releaseLease(FixtureLeases.Lease)} as soon as the VM is no longer needed.
+     * A test that already leased the VM on this thread is leased the same VM again, see {@link FixtureLeases}.
+     * @param mode how the VM will be used
+     * @return the lease, whose label identifies the VM to the compute resources, or null if none was granted
+     */
+    static public @Nullable FixtureLeases.Lease leaseVM(@Nonnull FixtureLeases.Mode mode) {
+        FixtureLeases.Lease lease = acquireLease(LEASE_VM, mode);
+
+        if( lease == null ) {
+            Logger.getLogger(DaseinTestManager.class).warn("Timed out waiting for a " + mode + " lease on the stateful " + LEASE_VM);
+        }
+        return lease;
+    }
+
+    /**
+     * Returns a lease granted by {@link #leaseVM(FixtureLeases.Mode)}.
+     * @param lease the lease to return
+     */
+    static public void releaseLease(@Nonnull FixtureLeases.Lease lease) {
+        leases.release(lease);
+    }
+
+    static private @Nullable FixtureLeases.Lease acquireLease(@Nonnull String type, @Nonnull FixtureLeases.Mode mode) {
+        try {
+            return leases.acquire(type, STATEFUL, mode);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private @Nullable String lease(@Nonnull String type, @Nonnull FixtureLeases.Mode mode) {
+        FixtureLeases.Lease lease = acquireLease(type, mode);
+
+        if( lease == null ) {
+            warn("Timed out waiting for a " + mode + " lease on the stateful " + type);
+            return null;
+        }
+        synchronized( heldLeases ) {
+            heldLeases.add(lease);
+        }
+        if( !lease.getLabel().equals(STATEFUL) ) {
+            out("Lease", lease);
+        }
+        return lease.getLabel();
+    }
+
+    /**
+     * Releases all fixture leases taken by the current test. This is done automatically by {@link #end()}.
+     */
+    public void releaseLeases() {
+        synchronized( heldLeases ) {
+            for( FixtureLeases.Lease lease : heldLeases ) {
+                leases.release(lease);
+            }
+            heldLeases.clear();
+        }
+    }
+
     public @Nullable String getTestVLANVMId(@Nonnull String label, @Nullable VmState desiredState, @Nullable String vlanId, boolean provisionIfNull, @Nullable String preferredDataCenterId) {
       if( computeResources == null ) {
         return null;
@@ -716,6 +955,9 @@ public class DaseinTestManager {
     }
 
     public @Nullable String getTestVpnId(@Nonnull String label, boolean provisionIfNull, @Nullable String preferredDataCenterId) {
+        if( label.equals(REMOVED) ) {
+            awaitPrefetch(PREFETCH_VPN);
+        }
         return (networkResources == null ? null : networkResources.getTestVpnId(label, provisionIfNull, preferredDataCenterId));
     }
 
@@ -739,11 +981,26 @@ public class DaseinTestManager {
      * @return true if the current test is to be skipped
      */
     public boolean isTestSkipped() {
+        if( isTestSkipped(suite, name) ) {
+            skip();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the specified test would be skipped under dasein.inclusions and dasein.exclusions, see
+     * {@link #isTestSkipped()}. Suites use this before any test begins to decide which fixtures they will need.
+     * @param suite the simple class name of the suite
+     * @param test the name of the test method, or null to check the suite as a whole
+     * @return true if the test is to be skipped
+     */
+    static public boolean isTestSkipped(@Nonnull String suite, @Nullable String test) {
         if( inclusions == null && exclusions == null ) {
             return false;
         }
         String s = suite.toLowerCase();
-        String t = (name == null ? null : name.toLowerCase());
+        String t = (test == null ? null : test.toLowerCase());
 
         Boolean suiteIncluded = null;
         Boolean testIncluded = null;
@@ -756,14 +1013,12 @@ public class DaseinTestManager {
                 testIncluded = true;
             }
             if( suiteIncluded == null && testIncluded == null ) {
-                skip();
                 return true;
             }
         }
         if( exclusions != null ) {
             if( t != null && exclusions.contains(s + "." + t) ) {
                 if( testIncluded == null || !testIncluded ) {
-                    skip();
                     return true;
                 }
                 return false; // conflict goes to not skipping
@@ -843,6 +1098,35 @@ public class DaseinTestManager {
         return value;
     }
 
+    /**
+     * Checks whether the benchmark modes of the regular test classes should run. These modes walk every resource
+     * in the account or push large bursts of requests, so they are off unless dasein.benchmark is set to true.
+     * @return true if benchmark modes are enabled
+     */
+    public static boolean isBenchmarkEnabled() {
+        return "true".equalsIgnoreCase(getSystemProperty("dasein.benchmark"));
+    }
+
+    /**
+     * Get environment property as an integer, typically used for sizing benchmark runs
+     * @param key the key to retrieve the property for
+     * @param defaultValue the value to use if the property is missing, empty, or not a number
+     * @return the integer value of the environment property
+     */
+    public static int getIntSystemProperty(@Nonnull String key, int defaultValue) {
+        String value = getSystemProperty(key);
+
+        if( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch( NumberFormatException e ) {
+            return defaultValue;
+        }
+    }
+
     public static boolean supportsHttps(@Nonnull LoadBalancerSupport lbs) throws CloudException, InternalException {
         boolean sslSupported = false;
         for( LbProtocol proto : lbs.getCapabilities().listSupportedProtocols() ) {
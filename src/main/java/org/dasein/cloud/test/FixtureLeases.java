@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Leases the mutable stateful fixtures that tests share by label, such as the stateful VM, firewall and VLAN. Tests
+ * that only read a fixture take {@link Mode#SHARED} leases and may hold an instance together, while tests that change
+ * its state take an {@link Mode#EXCLUSIVE} lease. A test left waiting on the leases of others for longer than the
+ * starvation threshold is granted a new instance under a fresh label instead, up to a maximum number of instances per
+ * fixture type. Leases only allocate labels: the instance behind a new label is provisioned by the usual test resource
+ * getters the first time it is asked for.
+ * <p>
+ * Leases are owned by the thread that acquired them and are re-entrant, since test resources lease fixtures while
+ * provisioning on behalf of a test that may already hold them. A thread holding an instance is leased that same
+ * instance again in any mode if it holds it exclusively, and a shared holder is upgraded to exclusive use when no
+ * other thread shares the instance. Two threads that both share an instance and both ask for exclusive use wait for
+ * each other until the starvation threshold grants one of them a new instance.
+ * </p>
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class FixtureLeases {
+    static private final Logger logger = Logger.getLogger(FixtureLeases.class);
+
+    static public enum Mode {
+        /**
+         * The holder only reads the fixture and expects its state not to change.
+         */
+        SHARED,
+        /**
+         * The holder changes the state of the fixture and no one else may use it meanwhile.
+         */
+        EXCLUSIVE
+    }
+
+    static public class Lease {
+        private final boolean exclusiveHold;
+        private final String  label;
+        private final Mode    mode;
+        private final Thread  owner;
+        private final String  type;
+
+        private Lease(@Nonnull String type, @Nonnull String label, @Nonnull Mode mode, @Nonnull Thread owner, boolean exclusiveHold) {
+            this.type = type;
+            this.label = label;
+            this.mode = mode;
+            this.owner = owner;
+            this.exclusiveHold = exclusiveHold;
+        }
+
+        /**
+         * @return the label under which the leased instance is tracked by the test resources
+         */
+        public @Nonnull String getLabel() {
+            return label;
+        }
+
+        public @Nonnull Mode getMode() {
+            return mode;
+        }
+
+        public @Nonnull String getType() {
+            return type;
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return (mode + " " + type + " [#" + label + "]");
+        }
+    }
+
+    static private class Instance {
+        private final String                  label;
+        private final HashMap<Thread,Integer> shared = new HashMap<Thread, Integer>();
+
+        private Thread exclusiveOwner;
+        private int    exclusiveHolds;
+
+        private Instance(@Nonnull String label) {
+            this.label = label;
+        }
+
+        private boolean isAvailable(@Nonnull Mode mode, @Nonnull Thread thread) {
+            if( exclusiveOwner != null ) {
+                // only the exclusive holder may re-enter, in any mode
+                return (exclusiveOwner == thread);
+            }
+            if( mode.equals(Mode.SHARED) ) {
+                return true;
+            }
+            // exclusive use is free, or an upgrade for a thread that is the only one sharing the instance
+            return (shared.isEmpty() || (shared.size() == 1 && shared.containsKey(thread)));
+        }
+
+        private boolean isHeldBy(@Nonnull Thread thread) {
+            return (exclusiveOwner == thread || shared.containsKey(thread));
+        }
+    }
+
+    private final HashMap<String,ArrayList<Instance>> pools = new HashMap<String, ArrayList<Instance>>();
+
+    private final int  maxInstances;
+    private final long starvationMillis;
+    private final long timeoutMillis;
+
+    /**
+     * @param starvationMillis how long a test waits on the leases of others before it is granted a new instance
+     * @param maxInstances the maximum number of instances of a fixture type, including the original one
+     * @param timeoutMillis how long a test waits for a lease in total once no new instances may be added
+     */
+    public FixtureLeases(long starvationMillis, int maxInstances, long timeoutMillis) {
+        this.starvationMillis = starvationMillis;
+        this.maxInstances = Math.max(1, maxInstances);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Leases an instance of the specified fixture type, waiting while all instances are held in conflicting modes.
+     * A thread that already holds an instance is leased that instance again whenever its holds allow it. Otherwise,
+     * shared leases are preferably granted on instances that are already shared so that others stay free for exclusive
+     * use. Additional instances are labeled by extending the base label, never by replacing it.
+     * @param type the fixture type, such as "vm"
+     * @param baseLabel the label of the original instance, usually {@link DaseinTestManager#STATEFUL}
+     * @param mode the mode in which the instance will be used
+     * @return the lease, or null if none could be granted before the timeout
+     * @throws InterruptedException the waiting thread was interrupted
+     */
+    public synchronized @Nullable Lease acquire(@Nonnull String type, @Nonnull String baseLabel, @Nonnull Mode mode) throws InterruptedException {
+        ArrayList<Instance> pool = pools.get(type);
+
+        if( pool == null ) {
+            pool = new ArrayList<Instance>();
+            pool.add(new Instance(baseLabel));
+            pools.put(type, pool);
+        }
+        Thread thread = Thread.currentThread();
+        long start = System.currentTimeMillis();
+
+        while( true ) {
+            Instance instance = select(pool, mode, thread);
+
+            if( instance != null ) {
+                return grant(type, instance, mode, thread);
+            }
+            long waited = System.currentTimeMillis() - start;
+
+            if( pool.size() < maxInstances ) {
+                if( waited >= starvationMillis ) {
+                    instance = new Instance(baseLabel + "-lease" + pool.size());
+                    pool.add(instance);
+                    logger.info("Waited " + waited + "ms for a " + mode + " lease on " + type + ", adding instance " + instance.label);
+                    return grant(type, instance, mode, thread);
+                }
+                wait(starvationMillis - waited);
+            }
+            else {
+                if( waited >= timeoutMillis ) {
+                    logger.warn("Timed out after " + waited + "ms waiting for a " + mode + " lease on " + type);
+                    return null;
+                }
+                wait(timeoutMillis - waited);
+            }
+        }
+    }
+
+    /**
+     * Returns the specified lease, waking any tests waiting on the instance. Re-entrant leases are returned one at a time,
+     * so the instance is only free once every lease its holder took on it has been returned.
+     * @param lease a lease granted by this manager
+     */
+    public synchronized void release(@Nonnull Lease lease) {
+        ArrayList<Instance> pool = pools.get(lease.getType());
+
+        if( pool == null ) {
+            return;
+        }
+        for( Instance instance : pool ) {
+            if( instance.label.equals(lease.getLabel()) ) {
+                if( lease.exclusiveHold ) {
+                    if( instance.exclusiveOwner == lease.owner && --instance.exclusiveHolds <= 0 ) {
+                        instance.exclusiveOwner = null;
+                        instance.exclusiveHolds = 0;
+                    }
+                }
+                else {
+                    Integer holds = instance.shared.get(lease.owner);
+
+                    if( holds != null ) {
+                        if( holds > 1 ) {
+                            instance.shared.put(lease.owner, holds - 1);
+                        }
+                        else {
+                            instance.shared.remove(lease.owner);
+                        }
+                    }
+                }
+                notifyAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param type the fixture type
+     * @return the number of instances of the fixture type leased so far
+     */
+    public synchronized int getInstanceCount(@Nonnull String type) {
+        ArrayList<Instance> pool = pools.get(type);
+
+        return (pool == null ? 0 : pool.size());
+    }
+
+    private @Nonnull Lease grant(@Nonnull String type, @Nonnull Instance instance, @Nonnull Mode mode, @Nonnull Thread thread) {
+        // anything taken while holding the instance exclusively counts as another exclusive hold
+        if( instance.exclusiveOwner == thread || mode.equals(Mode.EXCLUSIVE) ) {
+            instance.exclusiveOwner = thread;
+            instance.exclusiveHolds++;
+            return new Lease(type, instance.label, mode, thread, true);
+        }
+        Integer holds = instance.shared.get(thread);
+
+        instance.shared.put(thread, holds == null ? 1 : holds + 1);
+        return new Lease(type, instance.label, mode, thread, false);
+    }
+
+    private @Nullable Instance select(@Nonnull ArrayList<Instance> pool, @Nonnull Mode mode, @Nonnull Thread thread) {
+        Instance free = null;
+
+        for( Instance instance : pool ) {
+            if( instance.isHeldBy(thread) && instance.isAvailable(mode, thread) ) {
+                return instance;
+            }
+        }
+        for( Instance instance : pool ) {
+            if( instance.isAvailable(mode, thread) ) {
+                if( mode.equals(Mode.EXCLUSIVE) || !instance.shared.isEmpty() ) {
+                    return instance;
+                }
+                if( free == null ) {
+                    free = instance;
+                }
+            }
+        }
+        return free;
+    }
+}
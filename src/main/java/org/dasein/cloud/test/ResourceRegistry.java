@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the test fixtures of a resource pool by resource type and label. All operations are lock-free, iteration
+ * is weakly consistent and never fails under concurrent modification, and {@link Labels#register(String, Object)}
+ * allocates a unique label atomically so that concurrent tests provisioning under the same label never overwrite
+ * one another. {@link Labels#provision(String, Callable)} additionally ensures that only one fixture is ever provisioned
+ * for a label no matter how many tests ask for it at the same time.
+ * @param <V> the type of value tracked for each fixture, usually its provider ID
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class ResourceRegistry<V> {
+    /**
+     * The fixtures of a single resource type, keyed by label. Unlike a plain {@link ConcurrentHashMap}, null keys
+     * and values are tolerated: looking up a null label finds nothing and storing a null value removes the label.
+     * @param <V> the type of value tracked for each fixture
+     */
+    static public class Labels<V> extends ConcurrentHashMap<String,V> {
+        private final ConcurrentHashMap<String,InFlight<V>> inFlight = new ConcurrentHashMap<String, InFlight<V>>();
+        private final AtomicInteger                         sequence = new AtomicInteger();
+        private final String                                type;
+
+        private Labels(@Nonnull String type) {
+            this.type = type;
+        }
+
+        public @Nonnull String getType() {
+            return type;
+        }
+
+        /**
+         * Tracks a fixture under the specified label or, if the label is taken, under the label with a numeric suffix.
+         * Labels are therefore only ever extended, so checks like {@code label.startsWith(DaseinTestManager.REMOVED)}
+         * still hold for the allocated label.
+         * @param label the preferred label
+         * @param value the fixture to track, nothing is tracked if this is null
+         * @return the label the fixture was tracked under
+         */
+        public @Nonnull String register(@Nonnull String label, @Nullable V value) {
+            if( value == null ) {
+                return label;
+            }
+            String candidate = label;
+
+            while( putIfAbsent(candidate, value) != null ) {
+                candidate = label + sequence.incrementAndGet();
+            }
+            return candidate;
+        }
+
+        /**
+         * Returns the fixture tracked under the specified label, provisioning it if there is none. Only the first caller
+         * for a label runs the provisioning logic, directly on the calling thread; concurrent callers for the same label
+         * wait for that result instead of provisioning a duplicate. No lock is held while waiting, so provisioning logic
+         * that in turn waits on fixtures of other types, or of other resource pools, does not deadlock. Because the
+         * creator runs on the caller's thread, a fixture that depends on its own label is detected and fails fast. A
+         * cycle across threads is not detected, however: if one thread provisioning label A waits on label B while the
+         * thread provisioning B waits on A, both wait forever.
+         * @param label the label of the fixture
+         * @param creator provisions the fixture, registering it under the label, and returns its value
+         * @return the fixture tracked under the label or the value returned by the creator
+         * @throws Exception the failure of the creator, which every waiting caller sees
+         * @throws IllegalStateException the creator for the label asked for its own label
+         */
+        public @Nullable V provision(@Nonnull final String label, @Nonnull final Callable<V> creator) throws Exception {
+            V value = get(label);
+
+            if( value != null ) {
+                return value;
+            }
+            InFlight<V> task = new InFlight<V>(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    // a provisioning for the label may have completed between the lookup above and this task's start
+                    V current = get(label);
+
+                    return (current != null ? current : creator.call());
+                }
+            });
+            InFlight<V> running = inFlight.putIfAbsent(label, task);
+
+            if( running == null ) {
+                try {
+                    task.run();
+                }
+                finally {
+                    inFlight.remove(label, task);
+                }
+                running = task;
+            }
+            else if( running.owner == Thread.currentThread() ) {
+                throw new IllegalStateException("Provisioning of " + type + " under label " + label + " depends on itself");
+            }
+            try {
+                return running.get();
+            }
+            catch( ExecutionException e ) {
+                Throwable cause = e.getCause();
+
+                if( cause instanceof Exception ) {
+                    throw (Exception)cause;
+                }
+                if( cause instanceof Error ) {
+                    throw (Error)cause;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean containsKey(@Nullable Object label) {
+            return (label != null && super.containsKey(label));
+        }
+
+        @Override
+        public @Nullable V get(@Nullable Object label) {
+            return (label == null ? null : super.get(label));
+        }
+
+        @Override
+        public @Nullable V put(@Nonnull String label, @Nullable V value) {
+            if( value == null ) {
+                return remove(label);
+            }
+            return super.put(label, value);
+        }
+
+        @Override
+        public @Nullable V remove(@Nullable Object label) {
+            return (label == null ? null : super.remove(label));
+        }
+    }
+
+    static private class InFlight<V> extends FutureTask<V> {
+        private final Thread owner = Thread.currentThread();
+
+        private InFlight(@Nonnull Callable<V> creator) {
+            super(creator);
+        }
+    }
+
+    private final ConcurrentHashMap<String,Labels<V>> types = new ConcurrentHashMap<String, Labels<V>>();
+
+    /**
+     * @param type the resource type
+     * @return the fixtures of the specified type, created empty on first use
+     */
+    public @Nonnull Labels<V> forType(@Nonnull String type) {
+        Labels<V> labels = types.get(type);
+
+        if( labels == null ) {
+            labels = new Labels<V>(type);
+
+            Labels<V> existing = types.putIfAbsent(type, labels);
+
+            if( existing != null ) {
+                labels = existing;
+            }
+        }
+        return labels;
+    }
+
+    public @Nonnull Set<String> getTypes() {
+        return types.keySet();
+    }
+
+    /**
+     * @param type the resource type
+     * @param label the label of the fixture
+     * @return the fixture tracked under the specified type and label, or null if there is none
+     */
+    public @Nullable V get(@Nonnull String type, @Nullable String label) {
+        Labels<V> labels = types.get(type);
+
+        return (labels == null ? null : labels.get(label));
+    }
+
+    /**
+     * @return the number of fixtures tracked across all resource types
+     */
+    public int size() {
+        int count = 0;
+
+        for( Labels<V> labels : types.values() ) {
+            count += labels.size();
+        }
+        return count;
+    }
+}
@@ -20,7 +20,9 @@
 package org.dasein.cloud.test.ci;
 
 import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
 import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ci.CIProvisionOptions;
 import org.dasein.cloud.ci.CIServices;
 import org.dasein.cloud.ci.ConvergedHttpLoadBalancer;
@@ -33,8 +35,10 @@ import org.dasein.cloud.ci.TopologyProvisionOptions;
 import org.dasein.cloud.ci.TopologyState;
 import org.dasein.cloud.ci.TopologySupport;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.ResourceRegistry;
 import org.dasein.cloud.test.compute.ComputeResources;
 import org.dasein.cloud.test.network.NetworkResources;
+import org.dasein.util.CalendarWrapper;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -43,6 +47,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * [Class Documentation]
@@ -56,9 +67,10 @@ public class CIResources {
 
     private CloudProvider   provider;
 
-    private final HashMap<String,String> testInfrastructures = new HashMap<String, String>();
-    private final HashMap<String,String> testTopologies      = new HashMap<String, String>();
-    private final HashMap<String,String> testHttpLoadBalancers      = new HashMap<String, String>();
+    private final ResourceRegistry<String> registry = new ResourceRegistry<String>();
+    private final ResourceRegistry.Labels<String> testInfrastructures = registry.forType("infrastructures");
+    private final ResourceRegistry.Labels<String> testTopologies      = registry.forType("topologies");
+    private final ResourceRegistry.Labels<String> testHttpLoadBalancers      = registry.forType("httpLoadBalancers");
 
     public CIResources(@Nonnull CloudProvider provider) {
         this.provider = provider;
@@ -68,76 +80,136 @@ public class CIResources {
         CIServices ciServices = provider.getCIServices();
         int count = 0;
 
-        if( ciServices != null ) {
-            ConvergedHttpLoadBalancerSupport hlbSupport = ciServices.getConvergedHttpLoadBalancerSupport();
-
-            if( hlbSupport != null ) {
-                List<String> hlbIds = new ArrayList<String>();
-                for( Map.Entry<String,String> entry : testHttpLoadBalancers.entrySet() ) {
-                    if ( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                        try {
-                            ConvergedHttpLoadBalancer hlb = hlbSupport.getConvergedHttpLoadBalancer(entry.getValue());
-
-                            if( hlb != null ) {
-                                hlbSupport.removeConvergedHttpLoadBalancers(entry.getValue());
-                                count++;
-                            }
-                            else {
-                                count++;
-                            }
-                        }
-                        catch( Throwable t ) {
-                            logger.warn("Failed to de-provision test ConvergedHttpLoadBlancer " + entry.getValue() + ": " + t.getMessage());
+        try {
+            if( ciServices != null ) {
+                boolean pending;
+
+                synchronized( this ) {
+                    pending = (pendingCI != null);
+                }
+                if( pending ) {
+                    // let a CI still being provisioned finish so that it is tracked and removed below
+                    awaitTestCI(CalendarWrapper.MINUTE * 30L);
+                }
+
+                ConvergedHttpLoadBalancerSupport hlbSupport = ciServices.getConvergedHttpLoadBalancerSupport();
+
+                synchronized( fixtureLock ) {
+                    httpLoadBalancerFixture = null;
+                }
+                if( hlbSupport != null ) {
+                    // load balancers reference the CIs, so they all go before any CI is terminated
+                    ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+                    for( Map.Entry<String,String> entry : testHttpLoadBalancers.entrySet() ) {
+                        if ( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
+                            results.add(cleanHttpLoadBalancer(hlbSupport, entry.getValue()));
                         }
                     }
+                    count += await(results, "ConvergedHttpLoadBalancer");
                 }
-            }
 
-            ConvergedInfrastructureSupport ciSupport = ciServices.getConvergedInfrastructureSupport();
-
-            if( ciSupport != null ) {
-                for( Map.Entry<String,String> entry : testInfrastructures.entrySet() ) {
-                    if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                        try {
-                            ConvergedInfrastructure ci = ciSupport.getConvergedInfrastructure(entry.getValue());
-
-                            if( ci != null ) {
-                                ciSupport.terminate(entry.getValue(), null);
-                                count++;
-                            }
-                            else {
-                                count++;
-                            }
-                        }
-                        catch( Throwable t ) {
-                            logger.warn("Failed to de-provision test CI " + entry.getValue() + ": " + t.getMessage());
+                ConvergedInfrastructureSupport ciSupport = ciServices.getConvergedInfrastructureSupport();
+
+                if( ciSupport != null ) {
+                    ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+                    for( Map.Entry<String,String> entry : testInfrastructures.entrySet() ) {
+                        if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
+                            results.add(cleanCI(ciSupport, entry.getValue()));
                         }
                     }
+                    count += await(results, "CI");
                 }
-            }
 
-            TopologySupport tSupport = ciServices.getTopologySupport();
+                TopologySupport tSupport = ciServices.getTopologySupport();
 
-            if( tSupport != null ) {
-                List<String> topologyIds = new ArrayList<String>();
-                for( Map.Entry<String,String> entry : testTopologies.entrySet() ) {
-                    if ( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                        topologyIds.add(entry.getValue());
-                        count++;
+                if( tSupport != null ) {
+                    List<String> topologyIds = new ArrayList<String>();
+                    for( Map.Entry<String,String> entry : testTopologies.entrySet() ) {
+                        if ( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
+                            topologyIds.add(entry.getValue());
+                            count++;
+                        }
+                    }
+                    try {
+                        tSupport.removeTopologies(topologyIds.toArray(new String[topologyIds.size()]));
+                    }
+                    catch( Throwable e ) {
+                        logger.warn("Failed to de-provision test topology " + e.getMessage());
                     }
                 }
-                try {
-                    tSupport.removeTopologies(topologyIds.toArray(new String[topologyIds.size()]));
+            }
+        }
+        finally {
+            service.shutdown();
+            try {
+                if( !service.awaitTermination(1L, TimeUnit.MINUTES) ) {
+                    service.shutdownNow();
                 }
-                catch( Throwable e ) {
-                    logger.warn("Failed to de-provision test topology " + e.getMessage());
+            }
+            catch( InterruptedException e ) {
+                service.shutdownNow();
+            }
+        }
+        return count;
+    }
+
+    private int await(@Nonnull List<Future<Boolean>> results, @Nonnull String type) {
+        int count = 0;
+
+        for( Future<Boolean> result : results ) {
+            try {
+                if( result.get(CalendarWrapper.MINUTE*20L, TimeUnit.MILLISECONDS) ) {
+                    count++;
                 }
             }
+            catch( ExecutionException e ) {
+                logger.warn("Failed to de-provision test " + type + ": " + e.getCause().getMessage());
+            }
+            catch( TimeoutException e ) {
+                logger.warn("Timed out de-provisioning test " + type);
+            }
+            catch( InterruptedException e ) {
+                logger.warn("Interrupted de-provisioning test " + type);
+                break;
+            }
         }
         return count;
     }
 
-    public @Nullable String getTestTopologyId(@Nonnull String label, boolean provisionIfNull) {
+    private final ExecutorService service = Executors.newCachedThreadPool();
+
+    private Future<Boolean> cleanHttpLoadBalancer(final @Nonnull ConvergedHttpLoadBalancerSupport support, final @Nonnull String hlbId) {
+        return service.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                ConvergedHttpLoadBalancer hlb = support.getConvergedHttpLoadBalancer(hlbId);
+
+                if( hlb != null ) {
+                    support.removeConvergedHttpLoadBalancers(hlbId);
+                }
+                return true;
+            }
+        });
+    }
+
+    private Future<Boolean> cleanCI(final @Nonnull ConvergedInfrastructureSupport support, final @Nonnull String ciId) {
+        return service.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                ConvergedInfrastructure ci = support.getConvergedInfrastructure(ciId);
+
+                if( ci != null ) {
+                    support.terminate(ciId, null);
+                }
+                return true;
+            }
+        });
+    }
+
+    // synchronized since the background CI provisioning and the tests may both ask for the topology at once
+    public synchronized @Nullable String getTestTopologyId(@Nonnull String label, boolean provisionIfNull) {
         String id = testTopologies.get(label);
         if (id == null) {
             if ( label.equals(DaseinTestManager.STATELESS) ) {
@@ -224,17 +296,10 @@ public class CIResources {
 
         if( services != null ) {
             ConvergedHttpLoadBalancerSupport support = services.getConvergedHttpLoadBalancerSupport();
-            ConvergedInfrastructureSupport ciSupport = services.getConvergedInfrastructureSupport();
 
             if( support != null ) {
                 try {
-                    String ciId = getTestCIId(DaseinTestManager.STATELESS, true);
-                    ConvergedInfrastructure ci = ciSupport.getConvergedInfrastructure(ciId);
-                    String ciSource = ci.getProviderConvergedInfrastructureId();
-                    //horrible hack to try keep tests generic but work for google
-                    if (provider.getCloudName().equals("GCE")) {
-                        ciSource = ci.getTag("instanceGroupLink").toString();
-                    }
+                    String ciSource = getTestCISource();
                     Map<String, String> pathMap = new HashMap<String, String>();
                     String defaultBackend = "test-backend-1"+random.nextInt(1000);
                     pathMap.put("/*", defaultBackend);
@@ -264,6 +329,91 @@ public class CIResources {
         return null;
     }
 
+    // not this, since these are held while waiting on the background CI, which needs this for the topology
+    private final Object fixtureLock = new Object();
+    private String ciSource;
+
+    /**
+     * Looks up, once, what backend services must reference to send traffic to the test CI.
+     * @return the CI source or null if no test CI is available
+     * @throws CloudException an error occurred with the cloud provider looking up the CI
+     * @throws InternalException an error occurred within Dasein Cloud looking up the CI
+     */
+    public @Nullable String getTestCISource() throws CloudException, InternalException {
+        synchronized( fixtureLock ) {
+            return findCISource();
+        }
+    }
+
+    private @Nullable String findCISource() throws CloudException, InternalException {
+        if( ciSource == null ) {
+            CIServices services = provider.getCIServices();
+            ConvergedInfrastructureSupport support = (services == null ? null : services.getConvergedInfrastructureSupport());
+            String ciId = getTestCIId(DaseinTestManager.STATELESS, true);
+
+            if( support == null || ciId == null ) {
+                return null;
+            }
+            ConvergedInfrastructure ci = support.getConvergedInfrastructure(ciId);
+
+            if( ci == null ) {
+                return null;
+            }
+            ciSource = ci.getProviderConvergedInfrastructureId();
+            //horrible hack to try keep tests generic but work for google
+            if (provider.getCloudName().equals("GCE")) {
+                ciSource = ci.getTag("instanceGroupLink").toString();
+            }
+        }
+        return ciSource;
+    }
+
+    private HttpLoadBalancerFixture httpLoadBalancerFixture;
+
+    /**
+     * Provides the shared HTTP load balancer fixture, finding or provisioning the load balancer and looking up its
+     * health check and backend service the first time it is asked for. A provisioned load balancer is tracked under
+     * the stateful label and removed by {@link #close()}.
+     * @return the shared fixture or null if no HTTP load balancer could be provisioned
+     */
+    public @Nullable HttpLoadBalancerFixture getHttpLoadBalancerFixture() {
+        synchronized( fixtureLock ) {
+            return findFixture();
+        }
+    }
+
+    private @Nullable HttpLoadBalancerFixture findFixture() {
+        if( httpLoadBalancerFixture == null ) {
+            CIServices services = provider.getCIServices();
+            ConvergedHttpLoadBalancerSupport support = (services == null ? null : services.getConvergedHttpLoadBalancerSupport());
+            String id = getTestConvergedHttpLoadBalancerId(DaseinTestManager.STATELESS, true);
+
+            if( support == null || id == null ) {
+                return null;
+            }
+            try {
+                ConvergedHttpLoadBalancer hlb = support.getConvergedHttpLoadBalancer(id);
+                ConvergedHttpLoadBalancer.HealthCheck healthCheck = null;
+                ConvergedHttpLoadBalancer.BackendService backendService = null;
+
+                if( hlb != null ) {
+                    if( hlb.getHealthChecks() != null && hlb.getHealthChecks().iterator().hasNext() ) {
+                        healthCheck = hlb.getHealthChecks().iterator().next();
+                    }
+                    if( hlb.getBackendServices() != null && !hlb.getBackendServices().isEmpty() ) {
+                        backendService = hlb.getBackendServices().get(0);
+                    }
+                }
+                httpLoadBalancerFixture = new HttpLoadBalancerFixture(id, healthCheck, backendService);
+            }
+            catch( Throwable t ) {
+                logger.warn("Unable to load the test ConvergedHttpLoadBalancer " + id + ": " + t.getMessage());
+                return null;
+            }
+        }
+        return httpLoadBalancerFixture;
+    }
+
     private @Nullable String findStatelessTopology() {
         CIServices services = provider.getCIServices();
 
@@ -384,25 +534,80 @@ public class CIResources {
         if( !provisionIfNull ) {
             return null;
         }
+        return awaitTestCI(CalendarWrapper.MINUTE * 30L);
+    }
+
+    private Future<String> pendingCI;
+
+    /**
+     * Starts provisioning the shared stateful CI in the background, discovering or creating the test topology
+     * first. Every caller shares the same provisioning run, so the CI is only created once no matter how many
+     * tests are waiting on it.
+     * @return the provisioning run, which yields the ID of the CI or null if none could be provisioned
+     */
+    public synchronized @Nonnull Future<String> prepareTestCI() {
+        if( pendingCI == null ) {
+            pendingCI = service.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    String id = testInfrastructures.get(DaseinTestManager.STATEFUL);
+
+                    return (id == null ? provisionTestCI() : id);
+                }
+            });
+        }
+        return pendingCI;
+    }
+
+    /**
+     * Waits on the shared stateful CI, starting its provisioning if nothing has started it yet. A failed run is
+     * forgotten so that a later caller may try again.
+     * @param timeoutMillis the maximum time to wait
+     * @return the ID of the CI or null if none could be provisioned in time
+     */
+    public @Nullable String awaitTestCI(long timeoutMillis) {
+        Future<String> result = prepareTestCI();
+        String id = null;
+
+        try {
+            id = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch( ExecutionException e ) {
+            logger.warn("Failed to provision test CI: " + e.getCause().getMessage());
+        }
+        catch( TimeoutException e ) {
+            logger.warn("Timed out waiting for test CI");
+            return null;
+        }
+        catch( InterruptedException e ) {
+            return null;
+        }
+        if( id == null ) {
+            synchronized( this ) {
+                if( pendingCI == result ) {
+                    pendingCI = null;
+                }
+            }
+        }
+        return id;
+    }
+
+    // failures propagate so that awaitTestCI() reports their cause
+    private @Nullable String provisionTestCI() throws CloudException, InternalException {
         CIServices services = provider.getCIServices();
 
         if( services != null ) {
             ConvergedInfrastructureSupport support = services.getConvergedInfrastructureSupport();
 
             if( support != null ) {
-                try {
-                    String testTopologyId = getTestTopologyId(DaseinTestManager.STATELESS, true);
-                    String testDataCenterId = DaseinTestManager.getDefaultDataCenterId(true);
-                    CIProvisionOptions options = CIProvisionOptions.getInstance("dsn-ci", "test-description", testDataCenterId, 1, testTopologyId);
-                    ConvergedInfrastructure ci = support.provision(options);
-                    if (ci != null) {
-                        id = ci.getName();
-                        testInfrastructures.put(DaseinTestManager.STATEFUL, id);
-                        return id;
-                    }
-                }
-                catch( Throwable ignore ) {
-                    return null;
+                String testTopologyId = getTestTopologyId(DaseinTestManager.STATELESS, true);
+                String testDataCenterId = DaseinTestManager.getDefaultDataCenterId(true);
+                CIProvisionOptions options = CIProvisionOptions.getInstance("dsn-ci", "test-description", testDataCenterId, 1, testTopologyId);
+                ConvergedInfrastructure ci = support.provision(options);
+                if (ci != null) {
+                    String id = ci.getName();
+                    testInfrastructures.put(DaseinTestManager.STATEFUL, id);
+                    return id;
                 }
             }
         }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.ci;
+
+import org.dasein.cloud.ci.ConvergedHttpLoadBalancer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The shared HTTP load balancer used by the converged HTTP load balancer tests, along with the health check and
+ * backend service that tests reuse when building load balancers on top of existing components. The fixture is
+ * looked up once by {@link CIResources#getHttpLoadBalancerFixture()}. Its load balancer is the one the tests
+ * already share: an existing one, or one provisioned under the stateful label, which {@link CIResources#close()}
+ * removes with the other test resources.
+ * <p>
+ * The Dasein Cloud API only creates health checks, backend services and target proxies as parts of a load balancer,
+ * and a target proxy belongs to a single URL map, so the fixture shares the components of one load balancer rather
+ * than creating and reference counting standalone components. Tests that need a target proxy still create their own.
+ * </p>
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class HttpLoadBalancerFixture {
+    private final ConvergedHttpLoadBalancer.BackendService backendService;
+    private final ConvergedHttpLoadBalancer.HealthCheck    healthCheck;
+    private final String                                   loadBalancerId;
+
+    HttpLoadBalancerFixture(@Nonnull String loadBalancerId, @Nullable ConvergedHttpLoadBalancer.HealthCheck healthCheck, @Nullable ConvergedHttpLoadBalancer.BackendService backendService) {
+        this.loadBalancerId = loadBalancerId;
+        this.healthCheck = healthCheck;
+        this.backendService = backendService;
+    }
+
+    /**
+     * @return the first backend service of the shared load balancer, or null if it has none
+     */
+    public @Nullable ConvergedHttpLoadBalancer.BackendService getBackendService() {
+        return backendService;
+    }
+
+    /**
+     * @return the first health check of the shared load balancer, or null if it has none
+     */
+    public @Nullable ConvergedHttpLoadBalancer.HealthCheck getHealthCheck() {
+        return healthCheck;
+    }
+
+    public @Nonnull String getLoadBalancerId() {
+        return loadBalancerId;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return loadBalancerId;
+    }
+}
@@ -47,6 +47,13 @@ public class StatefulCITests {
     @BeforeClass
     static public void configure() {
         tm = new DaseinTestManager(StatefulCITests.class);
+
+        CIResources resources = DaseinTestManager.getCiResources();
+
+        if( resources != null ) {
+            // the listing tests share one CI, start it now so it is ready, or nearly so, when they run
+            resources.prepareTestCI();
+        }
     }
 
     @AfterClass
@@ -75,8 +82,10 @@ public class StatefulCITests {
         if (name.getMethodName().startsWith("listConvergedInfrastructures") ||
             name.getMethodName().startsWith("listVLANs") ||
             name.getMethodName().startsWith("listVirtualMachines") ||
-            name.getMethodName().startsWith("listConvergedInfrastructureStatus") ||
-            name.getMethodName().startsWith("deleteCIFromTopology")) {
+            name.getMethodName().startsWith("listConvergedInfrastructureStatus")) {
+            testCIId = tm.getTestCIId(DaseinTestManager.STATEFUL, true);
+        }
+        else if (name.getMethodName().startsWith("deleteCIFromTopology")) {
             try {
                 CIProvisionOptions options = CIProvisionOptions.getInstance(name.getMethodName().toLowerCase(), "test-description", testDataCenterId, 1, testTopologyId);
                 if( tm.getProvider().getCIServices() != null && tm.getProvider().getCIServices().getConvergedInfrastructureSupport() != null ) {
@@ -92,14 +101,6 @@ public class StatefulCITests {
     public void after() {
         tm.end();
         try {
-            if (name.getMethodName().startsWith("listConvergedInfrastructures") ||
-                name.getMethodName().startsWith("listVLANs") ||
-                name.getMethodName().startsWith("listConvergedInfrastructureStatus") ||
-                name.getMethodName().startsWith("listVirtualMachines")) {
-                if( tm.getProvider().getCIServices() != null && tm.getProvider().getCIServices().getConvergedInfrastructureSupport() != null ) {
-                    tm.getProvider().getCIServices().getConvergedInfrastructureSupport().terminate(name.getMethodName().toLowerCase(), "test over");
-                }
-            }
             if (name.getMethodName().startsWith("createCIFromTopology")) {
                 if( tm.getProvider().getCIServices() != null && tm.getProvider().getCIServices().getConvergedInfrastructureSupport() != null ) {
                     tm.getProvider().getCIServices().getConvergedInfrastructureSupport().terminate(name.getMethodName().toLowerCase(), "test over");
@@ -29,7 +29,6 @@ import org.dasein.cloud.ci.ConvergedHttpLoadBalancer.TargetHttpProxy;
 import org.dasein.cloud.ci.ConvergedHttpLoadBalancer.UrlSet;
 import org.dasein.cloud.ci.ConvergedHttpLoadBalancerFilterOptions;
 import org.dasein.cloud.ci.ConvergedHttpLoadBalancerSupport;
-import org.dasein.cloud.ci.ConvergedInfrastructure;
 import org.dasein.cloud.test.DaseinTestManager;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -45,6 +44,7 @@ import java.util.Map;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
@@ -56,6 +56,7 @@ public class StatefulHttpLoadBalancerTests {
     static private DaseinTestManager tm;
     static private final Random random = new Random();
     private String ciSource;
+    private HttpLoadBalancerFixture fixture;
     private String testHttpLoadBalancerId;
 
     @BeforeClass
@@ -79,14 +80,14 @@ public class StatefulHttpLoadBalancerTests {
     public void before() {
         tm.begin(name.getMethodName());
         assumeTrue(!tm.isTestSkipped());
-        String testCIId = tm.getTestCIId(DaseinTestManager.STATELESS, true);
+        CIResources resources = DaseinTestManager.getCiResources();
+
+        if (resources == null) {
+            return;
+        }
         try {
-            ConvergedInfrastructure ci = tm.getProvider().getCIServices().getConvergedInfrastructureSupport().getConvergedInfrastructure(testCIId);
-            ciSource = ci.getProviderConvergedInfrastructureId();
-            //horrible hack to try keep tests generic but work for google
-            if (tm.getProvider().getCloudName().equals("GCE")) {
-                ciSource = ci.getTag("instanceGroupLink").toString();
-            }
+            // looked up once for the whole run rather than once per test
+            ciSource = resources.getTestCISource();
         }
         catch (Exception e) {
 
@@ -97,12 +98,15 @@ public class StatefulHttpLoadBalancerTests {
             testHttpLoadBalancerId = tm.getTestHttpLoadBalancerId(DaseinTestManager.REMOVED, true);
         }
         else {
-            testHttpLoadBalancerId = tm.getTestHttpLoadBalancerId(DaseinTestManager.STATELESS, true);
+            // the shared load balancer, with its health check and backend service, is only built once
+            fixture = resources.getHttpLoadBalancerFixture();
+            testHttpLoadBalancerId = (fixture == null ? null : fixture.getLoadBalancerId());
         }
     }
 
     @After
     public void after() {
+        fixture = null;
         if (name.getMethodName().startsWith("create")) {
             CIServices services = tm.getProvider().getCIServices();
 
@@ -314,8 +318,8 @@ public class StatefulHttpLoadBalancerTests {
                 if (support != null) {
 
                     //get health check from test http load balancer
-                    ConvergedHttpLoadBalancer hlb = support.getConvergedHttpLoadBalancer(testHttpLoadBalancerId);
-                    ConvergedHttpLoadBalancer.HealthCheck hc = hlb.getHealthChecks().iterator().next();
+                    ConvergedHttpLoadBalancer.HealthCheck hc = (fixture == null ? null : fixture.getHealthCheck());
+                    assertNotNull("No health check is available from the test http load balancer", hc);
                     Map<String, String> pathMap = new HashMap<String, String>();
                     String instanceGroup1 = ciSource;
                     String defaultBackend = "test-backend-4";
@@ -364,8 +368,8 @@ public class StatefulHttpLoadBalancerTests {
                         support.getCapabilities().supportsForwardingRules() && 
                         support.getCapabilities().supportsUsingExistingBackendService()) {
                             //get backend service from test http load balancer
-                            ConvergedHttpLoadBalancer hlb = support.getConvergedHttpLoadBalancer(testHttpLoadBalancerId);
-                            ConvergedHttpLoadBalancer.BackendService bs = hlb.getBackendServices().get(0);
+                            ConvergedHttpLoadBalancer.BackendService bs = (fixture == null ? null : fixture.getBackendService());
+                            assertNotNull("No backend service is available from the test http load balancer", bs);
 
                             Map<String, String> pathMap = new HashMap<String, String>();
                             String defaultBackend = bs.getName();
@@ -61,8 +61,11 @@ import org.dasein.cloud.network.SubnetCreateOptions;
 import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.network.VLANSupport;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.FixtureLeases;
+import org.dasein.cloud.test.ResourceRegistry;
 import org.dasein.cloud.test.identity.IdentityResources;
 import org.dasein.cloud.test.network.NetworkResources;
+import org.dasein.cloud.test.network.VlanTopologyBuilder;
 import org.dasein.util.CalendarWrapper;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Storage;
@@ -70,6 +73,7 @@ import org.dasein.util.uom.storage.Storage;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import static org.junit.Assert.fail;
 
@@ -89,10 +93,11 @@ public class ComputeResources {
 
     private CloudProvider provider;
 
-    private final Map<String, String> testMachineImages = new HashMap<String, String>();
-    private final Map<String, String> testSnapshots     = new HashMap<String, String>();
-    private final Map<String, String> testVMs           = new HashMap<String, String>();
-    private final Map<String, String> testVolumes       = new HashMap<String, String>();
+    private final ResourceRegistry<String> registry = new ResourceRegistry<String>();
+    private final ResourceRegistry.Labels<String> testMachineImages = registry.forType("machineImages");
+    private final ResourceRegistry.Labels<String> testSnapshots     = registry.forType("snapshots");
+    private final ResourceRegistry.Labels<String> testVMs           = registry.forType("vms");
+    private final ResourceRegistry.Labels<String> testVolumes       = registry.forType("volumes");
 
     //defaults
     private String   testDataCenterId = DaseinTestManager.getSystemProperty("test.dataCenter");
@@ -355,7 +360,7 @@ public class ComputeResources {
         return testImagePlatform;
     }
 
-    public @Nullable String getTestImageId( @Nonnull String label, boolean provisionIfNull ) {
+    public @Nullable String getTestImageId( @Nonnull final String label, boolean provisionIfNull ) {
         String id = testMachineImages.get(label);
 
         if( id == null ) {
@@ -374,11 +379,16 @@ public class ComputeResources {
                 ComputeServices services = provider.getComputeServices();
 
                 if( services != null ) {
-                    MachineImageSupport support = services.getImageSupport();
+                    final MachineImageSupport support = services.getImageSupport();
 
                     if( support != null ) {
                         try {
-                            return provisionImage(support, label, "dsnimg", null);
+                            return testMachineImages.provision(label, new Callable<String>() {
+                                @Override
+                                public String call() throws Exception {
+                                    return provisionImage(support, label, "dsnimg", null);
+                                }
+                            });
                         } catch( Throwable ignore ) {
                             return null;
                         }
@@ -389,7 +399,7 @@ public class ComputeResources {
         return id;
     }
 
-    public @Nullable String getTestSnapshotId( @Nonnull String label, boolean provisionIfNull ) {
+    public @Nullable String getTestSnapshotId( @Nonnull final String label, boolean provisionIfNull ) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testSnapshots.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -413,11 +423,16 @@ public class ComputeResources {
         ComputeServices services = provider.getComputeServices();
 
         if( services != null ) {
-            SnapshotSupport support = services.getSnapshotSupport();
+            final SnapshotSupport support = services.getSnapshotSupport();
 
             if( support != null ) {
                 try {
-                    return provisionSnapshot(support, label, "dsnsnap" + ( System.currentTimeMillis() % 10000 ), null);
+                    return testSnapshots.provision(label, new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return provisionSnapshot(support, label, "dsnsnap" + ( System.currentTimeMillis() % 10000 ), null);
+                        }
+                    });
                 } catch( Throwable ignore ) {
                     return null;
                 }
@@ -430,7 +445,7 @@ public class ComputeResources {
         return getTestVmId(label, "dsnvm", desiredState, provisionIfNull, preferredDataCenterId);
     }
 
-    public @Nullable String getTestVmId( @Nonnull String label, @Nonnull String vmName, @Nullable VmState desiredState, boolean provisionIfNull, @Nullable String preferredDataCenterId ) {
+    public @Nullable String getTestVmId( @Nonnull final String label, @Nonnull final String vmName, @Nullable VmState desiredState, boolean provisionIfNull, @Nullable final String preferredDataCenterId ) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testVMs.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -458,14 +473,23 @@ public class ComputeResources {
         ComputeServices services = provider.getComputeServices();
 
         if( services != null ) {
-            VirtualMachineSupport support = services.getVirtualMachineSupport();
+            final VirtualMachineSupport support = services.getVirtualMachineSupport();
 
             if( support != null ) {
                 try {
                     VirtualMachine vm = ( id == null ? null : support.getVirtualMachine(id) );
 
                     if( ( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) && provisionIfNull ) {
-                        id = provisionVM(support, label, "testvm-" + label, vmName, preferredDataCenterId);
+                        if( id != null ) {
+                            // free the label so the replacement is tracked under it and found by concurrent callers
+                            testVMs.remove(label, id);
+                        }
+                        id = testVMs.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionVM(support, label, "testvm-" + label, vmName, preferredDataCenterId);
+                            }
+                        });
                         vm = support.getVirtualMachine(id);
                     }
                     if( vm != null && desiredState != null ) {
@@ -628,7 +652,7 @@ public class ComputeResources {
         return testVMProductId;
     }
 
-    public @Nullable String getTestVolumeId( @Nonnull String label, boolean provisionIfNull, @Nullable VolumeFormat desiredFormat, @Nullable String preferredDataCenterId ) {
+    public @Nullable String getTestVolumeId( @Nonnull final String label, boolean provisionIfNull, @Nullable final VolumeFormat desiredFormat, @Nullable final String preferredDataCenterId ) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testVolumes.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -649,11 +673,16 @@ public class ComputeResources {
             ComputeServices services = provider.getComputeServices();
 
             if( services != null ) {
-                VolumeSupport support = services.getVolumeSupport();
+                final VolumeSupport support = services.getVolumeSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionVolume(support, label, "dsnvol" + ( System.currentTimeMillis() % 10000 ), desiredFormat, preferredDataCenterId);
+                        return testVolumes.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionVolume(support, label, "dsnvol" + ( System.currentTimeMillis() % 10000 ), desiredFormat, preferredDataCenterId);
+                            }
+                        });
                     } catch( Throwable ignore ) {
                         return null;
                     }
@@ -915,50 +944,51 @@ public class ComputeResources {
         if( vmSupport == null ) {
             throw new OperationNotSupportedException("Unable to provision a machine image because Dasein Cloud is showing no VM support");
         }
-        if( vmId == null ) {
-            vmId = getTestVmId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, null);
+        FixtureLeases.Lease lease = null;
+
+        try {
             if( vmId == null ) {
-                throw new InternalException("Test vm id is not found but is required");
+                // imaging may stop or start the stateful VM, so no other test may use it meanwhile
+                lease = DaseinTestManager.leaseVM(FixtureLeases.Mode.EXCLUSIVE);
+                vmId = (lease == null ? null : getTestVmId(lease.getLabel(), VmState.RUNNING, true, null));
+                if( vmId == null ) {
+                    throw new InternalException("Test vm id is not found but is required");
+                }
             }
-        }
-        VirtualMachine vm = vmSupport.getVirtualMachine(vmId);
+            VirtualMachine vm = vmSupport.getVirtualMachine(vmId);
 
-        if( vm == null ) {
-            throw new ResourceNotFoundException("vm", vmId);
-        }
-        String imageId = vm.getProviderMachineImageId();
-        MachineImage image = support.getImage(imageId);
+            if( vm == null ) {
+                throw new ResourceNotFoundException("vm", vmId);
+            }
+            String imageId = vm.getProviderMachineImageId();
+            MachineImage image = support.getImage(imageId);
 
-        if( image == null || support.getCapabilities().supportsImageCapture(image.getType()) ) {
-            prepareVmForImaging(vm, vmSupport, support);
+            if( image == null || support.getCapabilities().supportsImageCapture(image.getType()) ) {
+                prepareVmForImaging(vm, vmSupport, support);
 
-            String id = ImageCreateOptions.getInstance(vm, namePrefix + ( System.currentTimeMillis() % 10000 ), "Test machine image with label " + label).build(provider);
+                String id = ImageCreateOptions.getInstance(vm, namePrefix + ( System.currentTimeMillis() % 10000 ), "Test machine image with label " + label).build(provider);
 
-            synchronized ( testMachineImages ) {
-                while( testMachineImages.containsKey(label) ) {
-                    label = label + random.nextInt(9);
-                }
-                testMachineImages.put(label, id);
+                testMachineImages.register(label, id);
+                return id;
             }
-            return id;
-        }
-        else if( !support.getCapabilities().identifyLocalBundlingRequirement().equals(Requirement.REQUIRED) ) {
-            Iterator<MachineImageFormat> formats = support.getCapabilities().listSupportedFormatsForBundling().iterator();
-            MachineImageFormat format = ( formats.hasNext() ? formats.next() : null );
+            else if( !support.getCapabilities().identifyLocalBundlingRequirement().equals(Requirement.REQUIRED) ) {
+                Iterator<MachineImageFormat> formats = support.getCapabilities().listSupportedFormatsForBundling().iterator();
+                MachineImageFormat format = ( formats.hasNext() ? formats.next() : null );
 
-            if( format != null ) {
-                String id = support.bundleVirtualMachine(vmId, format, "dsnimg" + ( System.currentTimeMillis() % 100000 ), "dsnimg");
+                if( format != null ) {
+                    String id = support.bundleVirtualMachine(vmId, format, "dsnimg" + ( System.currentTimeMillis() % 100000 ), "dsnimg");
 
-                synchronized ( testMachineImages ) {
-                    while( testMachineImages.containsKey(label) ) {
-                        label = label + random.nextInt(9);
-                    }
-                    testMachineImages.put(label, id);
+                    testMachineImages.register(label, id);
+                    return id;
                 }
-                return id;
+            }
+            throw new OperationNotSupportedException("No mechanism exists for provisioning images from a virtual machine");
+        }
+        finally {
+            if( lease != null ) {
+                DaseinTestManager.releaseLease(lease);
             }
         }
-        throw new OperationNotSupportedException("No mechanism exists for provisioning images from a virtual machine");
     }
 
     public @Nonnull String provisionSnapshot( @SuppressWarnings("UnusedParameters") @Nonnull SnapshotSupport support, @Nonnull String label, @Nonnull String namePrefix, @Nullable String volumeId ) throws CloudException, InternalException {
@@ -993,22 +1023,32 @@ public class ComputeResources {
                 }
             }
             if( volume != null && volume.getProviderVirtualMachineId() == null && support.getCapabilities().identifyAttachmentRequirement().equals(Requirement.REQUIRED) ) {
-                String vmId = getTestVmId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, volume.getProviderDataCenterId());
-
-                if( vmId != null ) {
-                    @SuppressWarnings("ConstantConditions") VirtualMachine vm = provider.getComputeServices().getVirtualMachineSupport().getVirtualMachine(vmId);
-
-                    if( vm != null ) {
-                        for( String deviceId : vs.getCapabilities().listPossibleDeviceIds(vm.getPlatform()) ) {
-                            try {
-                                vs.attach(volumeId, vmId, deviceId);
-                                break;
-                            } catch( Throwable ignore ) {
-                                // ignore
+                // attaching leaves the state of the stateful VM alone, so it may be shared with running tests
+                FixtureLeases.Lease lease = DaseinTestManager.leaseVM(FixtureLeases.Mode.SHARED);
+
+                try {
+                    String vmId = (lease == null ? null : getTestVmId(lease.getLabel(), VmState.RUNNING, true, volume.getProviderDataCenterId()));
+
+                    if( vmId != null ) {
+                        @SuppressWarnings("ConstantConditions") VirtualMachine vm = provider.getComputeServices().getVirtualMachineSupport().getVirtualMachine(vmId);
+
+                        if( vm != null ) {
+                            for( String deviceId : vs.getCapabilities().listPossibleDeviceIds(vm.getPlatform()) ) {
+                                try {
+                                    vs.attach(volumeId, vmId, deviceId);
+                                    break;
+                                } catch( Throwable ignore ) {
+                                    // ignore
+                                }
                             }
                         }
                     }
                 }
+                finally {
+                    if( lease != null ) {
+                        DaseinTestManager.releaseLease(lease);
+                    }
+                }
             }
         }
         options = SnapshotCreateOptions.getInstanceForCreate(volumeId, namePrefix + ( System.currentTimeMillis() % 10000 ), "Dasein Snapshot Test " + label);
@@ -1017,12 +1057,7 @@ public class ComputeResources {
         if( id == null ) {
             throw new GeneralCloudException("Unable to create a snapshot", CloudErrorType.GENERAL);
         }
-        synchronized ( testSnapshots ) {
-            while( testSnapshots.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testSnapshots.put(label, id);
-        }
+        testSnapshots.register(label, id);
         return id;
 
     }
@@ -1059,11 +1094,34 @@ public class ComputeResources {
                 if( networkId == null ) {
                     networkId = network.getTestVLANId(DaseinTestManager.STATELESS, false, preferredDataCenter);
                 }
+                String subnetId = null;
+
                 // only provision a network if no other networks been found thus far
                 if( networkId == null ) {
-                    networkId = network.getTestVLANId(label, true, preferredDataCenter);
+                    try {
+                        VlanTopologyBuilder.Spec spec = VlanTopologyBuilder.Spec.getInstance(label);
+
+                        if( preferredDataCenter != null ) {
+                            spec.withSubnets(1, preferredDataCenter);
+                        }
+                        else {
+                            spec.withSubnets(1);
+                        }
+                        VlanTopologyBuilder.Topology topology = network.provisionVlanTopology(spec);
+
+                        networkId = topology.getVlanId();
+                        if( !topology.getSubnetIds().isEmpty() ) {
+                            subnetId = topology.getSubnetIds().get(0);
+                        }
+                    }
+                    catch( Throwable t ) {
+                        logger.warn("Unable to build a test VLAN topology, falling back to a bare VLAN: " + t.getMessage());
+                        networkId = network.getTestVLANId(label, true, preferredDataCenter);
+                    }
+                }
+                if( subnetId == null ) {
+                    subnetId = network.getTestSubnetId(DaseinTestManager.STATEFUL, true, networkId, preferredDataCenter);
                 }
-                String subnetId = network.getTestSubnetId(DaseinTestManager.STATEFUL, true, networkId, preferredDataCenter);
 
                 try {
                     if( networkId != null || subnetId != null ) {
@@ -1139,12 +1197,7 @@ public class ComputeResources {
         }
         
         for( String id : ids ) {
-            synchronized ( testVMs ) {
-                while( testVMs.containsKey(label) ) {
-                    label = label + random.nextInt(9);
-                }
-                testVMs.put(label, id);
-            }
+            testVMs.register(label, id);
         }
         return ids;
     }
@@ -1272,23 +1325,30 @@ public class ComputeResources {
             options.inDataCenter(preferredDataCenterId);
         }
         options.withMetaData("dsntestcase", "true");
-        if (support.getCapabilities().requiresVMOnCreate().equals(Requirement.REQUIRED)) {
-            String testVmId = getTestVmId(DaseinTestManager.STATEFUL, VmState.STOPPED, true, testDataCenterId);
-            options.withVirtualMachineId(testVmId);
+        FixtureLeases.Lease lease = null;
+        String id;
+
+        try {
+            if (support.getCapabilities().requiresVMOnCreate().equals(Requirement.REQUIRED)) {
+                // the stateful VM is stopped for this, so no other test may use it until the volume exists
+                lease = DaseinTestManager.leaseVM(FixtureLeases.Mode.EXCLUSIVE);
+                String testVmId = (lease == null ? null : getTestVmId(lease.getLabel(), VmState.STOPPED, true, testDataCenterId));
+                options.withVirtualMachineId(testVmId);
+            }
+            id = options.build(provider);
+        }
+        finally {
+            if( lease != null ) {
+                DaseinTestManager.releaseLease(lease);
+            }
         }
-        String id = options.build(provider);
 
         Volume volume = support.getVolume(id);
 
         if( volume != null && testDataCenterId == null ) {
             testDataCenterId = volume.getProviderDataCenterId();
         }
-        synchronized ( testVolumes ) {
-            while( testVolumes.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testVolumes.put(label, id);
-        }
+        testVolumes.register(label, id);
         return id;
 
     }
@@ -35,6 +35,7 @@ import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.compute.VirtualMachineSupport;
 import org.dasein.cloud.compute.VmState;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.FixtureLeases;
 import org.dasein.util.CalendarWrapper;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -97,7 +98,7 @@ public class StatefulImageTests {
         if( !name.getMethodName().startsWith("capture") ) {
             testImageId = tm.getTestImageId(DaseinTestManager.STATEFUL, true);
         }
-        testVMId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+        testVMId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, testDataCenterId);
         testShareAccount = System.getProperty("shareAccount");
         if( testImageId != null ) {
             if( name.getMethodName().equals("addPrivateShare") || name.getMethodName().equals("addPublicShare") ||
@@ -26,6 +26,7 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.dc.Region;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.FixtureLeases;
 import org.dasein.util.CalendarWrapper;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Storage;
@@ -724,7 +725,7 @@ public class StatefulSnapshotTests {
         }
 
         testVolumeId = tm.getTestVolumeId(DaseinTestManager.STATEFUL, true, null, testDataCenterId);
-        testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+        testVmId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, testDataCenterId);
 
         VolumeSupport.attach(testVolumeId, testVmId, "sdb");
 
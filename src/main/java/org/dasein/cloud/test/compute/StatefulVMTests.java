@@ -31,6 +31,7 @@ import org.dasein.cloud.dc.FolderType;
 import org.dasein.cloud.dc.StoragePool;
 import org.dasein.cloud.network.*;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.FixtureLeases;
 import org.dasein.cloud.test.network.NetworkResources;
 import org.dasein.util.CalendarWrapper;
 import org.dasein.util.uom.storage.Gigabyte;
@@ -141,16 +142,16 @@ public class StatefulVMTests {
             }
         }
         else if( name.getMethodName().equals("reboot") ) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.RUNNING, testDataCenterId);
         }
         else if( name.getMethodName().equals("terminate") ) {
             testVmId = tm.getTestVMId(DaseinTestManager.REMOVED, VmState.RUNNING, true, testDataCenterId);
         }
         else if( name.getMethodName().equals("start") ) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.STOPPED, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.STOPPED, testDataCenterId);
         }
         else if( name.getMethodName().equals("stop") ) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.RUNNING, testDataCenterId);
         }
         else if( name.getMethodName().equals("modifyInstance") ) {
             VmState vmStateForAlter = null;
@@ -170,22 +171,22 @@ public class StatefulVMTests {
                 tm.warn("Failed to find a supported VM state for modifyInstance state.");
                 return;
             }
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, vmStateForAlter, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, vmStateForAlter, testDataCenterId);
         }
         else if( name.getMethodName().equals("pause") ) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.RUNNING, testDataCenterId);
         }
         else if( name.getMethodName().equals("unpause") ) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.PAUSED, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.PAUSED, testDataCenterId);
         }
         else if( name.getMethodName().equals("suspend") ) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.RUNNING, testDataCenterId);
         }
         else if( name.getMethodName().equals("resume") ) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.SUSPENDED, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.SUSPENDED, testDataCenterId);
         }
         else if( !name.getMethodName().startsWith("launchVMWith")) {
-            testVmId = tm.getTestVMId(DaseinTestManager.STATEFUL, null, true, testDataCenterId);
+            testVmId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, null, testDataCenterId);
         }
     }
 
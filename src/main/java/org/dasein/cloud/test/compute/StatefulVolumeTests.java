@@ -36,6 +36,7 @@ import org.dasein.cloud.compute.VolumeProduct;
 import org.dasein.cloud.compute.VolumeState;
 import org.dasein.cloud.compute.VolumeSupport;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.FixtureLeases;
 import org.dasein.util.CalendarWrapper;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Storage;
@@ -97,7 +98,7 @@ public class StatefulVolumeTests {
         if( name.getMethodName().equals("createNFSVolume") ) {
             testVLANId = tm.getTestVLANId(DaseinTestManager.STATELESS, false, testDataCenterId);
             if( testVLANId == null ) {
-                testVLANId = tm.getTestVLANId(DaseinTestManager.STATEFUL, true, testDataCenterId);
+                testVLANId = tm.leaseTestVLANId(FixtureLeases.Mode.SHARED, testDataCenterId);
             }
         }
         else if( name.getMethodName().equals("createFromSnapshot") ) {
@@ -127,7 +128,7 @@ public class StatefulVolumeTests {
             }
         }
         else if( name.getMethodName().equals("attach") ) {
-            testVMId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+            testVMId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, testDataCenterId);
             String dc = null;
 
             if( testVMId != null ) {
@@ -161,7 +162,7 @@ public class StatefulVolumeTests {
             }
         }
         else if( name.getMethodName().equals("detach") ) {
-            testVMId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, testDataCenterId);
+            testVMId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, testDataCenterId);
             String dc = null;
 
             if( testVMId != null ) {
@@ -414,7 +415,7 @@ public class StatefulVolumeTests {
 
         if( supported ) {
             if( support.getCapabilities().requiresVMOnCreate().equals(Requirement.REQUIRED) ) {
-                options.withVirtualMachineId(tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.STOPPED, true, testDataCenterId));
+                options.withVirtualMachineId(tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.STOPPED, testDataCenterId));
                 assertNotNull(options.getProviderVirtualMachineId(),
                         "Cloud " + tm.getProvider().getCloudName() +
                                 " requires volumes to be attached to VMs, but no VM could be provisioned");
@@ -502,7 +503,7 @@ public class StatefulVolumeTests {
         options.setDataCenterId(testDataCenterId);
         if( supported ) {
             if( support.getCapabilities().requiresVMOnCreate().equals(Requirement.REQUIRED) ) {
-                options.withVirtualMachineId(tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.STOPPED, true, testDataCenterId));
+                options.withVirtualMachineId(tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.STOPPED, testDataCenterId));
                 assertNotNull(options.getProviderVirtualMachineId(),
                         "Cloud " + tm.getProvider().getCloudName() +
                                 " requires volumes to be attached to VMs, but no VM could be provisioned");
@@ -582,7 +583,7 @@ public class StatefulVolumeTests {
 
                 if( supported ) {
                     if( support.getCapabilities().requiresVMOnCreate().equals(Requirement.REQUIRED) ) {
-                        options.withVirtualMachineId(tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.STOPPED, true, testDataCenterId));
+                        options.withVirtualMachineId(tm.leaseTestVMId(FixtureLeases.Mode.EXCLUSIVE, VmState.STOPPED, testDataCenterId));
                         assertNotNull(options.getProviderVirtualMachineId(),
                                 "Cloud " + tm.getProvider().getCloudName() +
                                         " requires volumes to be attached to VMs, but no VM could be provisioned");
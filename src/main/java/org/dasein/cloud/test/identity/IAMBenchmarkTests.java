@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.identity;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.identity.CloudGroup;
+import org.dasein.cloud.identity.CloudPermission;
+import org.dasein.cloud.identity.CloudPolicy;
+import org.dasein.cloud.identity.CloudPolicyFilterOptions;
+import org.dasein.cloud.identity.CloudPolicyOptions;
+import org.dasein.cloud.identity.CloudPolicyRule;
+import org.dasein.cloud.identity.CloudPolicyType;
+import org.dasein.cloud.identity.CloudUser;
+import org.dasein.cloud.identity.IdentityAndAccessSupport;
+import org.dasein.cloud.identity.IdentityServices;
+import org.dasein.cloud.identity.ServiceAction;
+import org.dasein.cloud.test.BenchmarkStats;
+import org.dasein.cloud.test.DaseinTestManager;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures IAM operations at the scale of thousands of principals: concurrent creation of users and groups, group
+ * membership, managed policy attachment, the list calls over the resulting population, and parallel teardown.
+ * Sizes are set with dasein.benchmark.iam.users, dasein.benchmark.iam.groups, and dasein.benchmark.threads.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class IAMBenchmarkTests {
+    /**
+     * A single IAM call made for the principal at the specified index.
+     */
+    private interface Operation {
+        public void run(int index) throws CloudException, InternalException;
+    }
+
+    static private final String DSN_PREFIX = "dsnb-";
+
+    static private DaseinTestManager tm;
+
+    @BeforeClass
+    static public void configure() {
+        tm = new DaseinTestManager(IAMBenchmarkTests.class);
+    }
+
+    @AfterClass
+    static public void cleanUp() {
+        if( tm != null ) {
+            tm.close();
+        }
+    }
+
+    @Rule
+    public final TestName name = new TestName();
+
+    private ExecutorService pool;
+
+    public IAMBenchmarkTests() { }
+
+    @Before
+    public void before() {
+        tm.begin(name.getMethodName());
+        assumeTrue(!tm.isTestSkipped());
+        pool = Executors.newFixedThreadPool(DaseinTestManager.getIntSystemProperty("dasein.benchmark.threads", 10));
+    }
+
+    @After
+    public void after() {
+        try {
+            pool.shutdownNow();
+        }
+        finally {
+            tm.end();
+        }
+    }
+
+    private @Nullable IdentityAndAccessSupport getSupport() throws CloudException, InternalException {
+        IdentityServices services = tm.getProvider().getIdentityServices();
+
+        if( services == null ) {
+            tm.ok("Identity services are not supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return null;
+        }
+        IdentityAndAccessSupport support = services.getIdentityAndAccessSupport();
+
+        if( support == null ) {
+            tm.ok("Identity and access management is not supported in " + tm.getProvider().getCloudName());
+            return null;
+        }
+        if( !support.isSubscribed() ) {
+            tm.ok("Not subscribed to IAM services in " + tm.getProvider().getCloudName());
+            return null;
+        }
+        return support;
+    }
+
+    /**
+     * Runs the operation for every index from 0 to count on the benchmark pool, retrying throttled calls with
+     * backoff, and records each call in the returned stats. Failures are counted rather than thrown so that
+     * teardown can always run to completion.
+     */
+    private @Nonnull BenchmarkStats runAll(@Nonnull String label, int count, @Nonnull final Operation operation) throws InterruptedException {
+        final BenchmarkStats stats = new BenchmarkStats(label);
+        final AtomicInteger throttled = new AtomicInteger();
+        ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+
+        stats.start();
+        for( int i=0; i<count; i++ ) {
+            final int index = i;
+
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    long backoff = 500L;
+
+                    while( true ) {
+                        long start = System.nanoTime();
+
+                        try {
+                            operation.run(index);
+                            stats.record(start);
+                            return null;
+                        }
+                        catch( CloudException e ) {
+                            if( !CloudErrorType.THROTTLING.equals(e.getErrorType()) || backoff > 8000L ) {
+                                stats.fail();
+                                throw e;
+                            }
+                            throttled.incrementAndGet();
+                            Thread.sleep(backoff);
+                            backoff *= 2;
+                        }
+                        catch( InternalException e ) {
+                            stats.fail();
+                            throw e;
+                        }
+                    }
+                }
+            }));
+        }
+        String firstError = null;
+
+        for( Future<Void> result : results ) {
+            try {
+                result.get();
+            }
+            catch( ExecutionException e ) {
+                if( firstError == null ) {
+                    firstError = e.getCause().getMessage();
+                }
+            }
+        }
+        stats.stop();
+        stats.report(tm);
+        tm.out(label + " Throttled", throttled.get());
+        if( firstError != null ) {
+            tm.warn(label + " failed " + stats.getFailureCount() + " times, first error: " + firstError);
+        }
+        return stats;
+    }
+
+    /**
+     * Creates users and groups concurrently, adds every user to a group, attaches a managed policy to every group,
+     * times the list calls at that scale, and then tears everything down in parallel.
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws InterruptedException the test was interrupted waiting on IAM calls
+     */
+    @Test
+    public void bulkPrincipalLifecycle() throws CloudException, InternalException, InterruptedException {
+        final IdentityAndAccessSupport support = getSupport();
+
+        if( support == null ) {
+            return;
+        }
+        final int userCount = DaseinTestManager.getIntSystemProperty("dasein.benchmark.iam.users", 100);
+        final int groupCount = Math.max(1, DaseinTestManager.getIntSystemProperty("dasein.benchmark.iam.groups", 10));
+        final String run = String.valueOf(System.currentTimeMillis() % 100000);
+        // a path of its own so that listing it returns exactly the principals created here
+        final String path = "/dsntest/bench" + run + "/";
+        final String[] userIds = new String[userCount];
+        final String[] groupIds = new String[groupCount];
+        final String[] policyId = new String[1];
+
+        tm.out("Users", userCount);
+        tm.out("Groups", groupCount);
+        tm.out("Path", path);
+        try {
+            runAll("Create Group", groupCount, new Operation() {
+                @Override
+                public void run(int index) throws CloudException, InternalException {
+                    groupIds[index] = support.createGroup(DSN_PREFIX + run + "-g" + index, path, false).getProviderGroupId();
+                }
+            });
+            runAll("Create User", userCount, new Operation() {
+                @Override
+                public void run(int index) throws CloudException, InternalException {
+                    userIds[index] = support.createUser(DSN_PREFIX + run + "-u" + index, path, new String[0]).getProviderUserId();
+                }
+            });
+            BenchmarkStats joins = runAll("Join Group", userCount, new Operation() {
+                @Override
+                public void run(int index) throws CloudException, InternalException {
+                    if( userIds[index] != null && groupIds[index % groupCount] != null ) {
+                        support.addUserToGroups(userIds[index], groupIds[index % groupCount]);
+                    }
+                }
+            });
+
+            Iterator<ServiceAction> actions = support.listServiceActions(null).iterator();
+
+            if( actions.hasNext() ) {
+                policyId[0] = support.createPolicy(CloudPolicyOptions.getInstance(DSN_PREFIX + "mng-" + run, CloudPolicyRule.getInstance(CloudPermission.ALLOW, actions.next())));
+                runAll("Attach Policy", groupCount, new Operation() {
+                    @Override
+                    public void run(int index) throws CloudException, InternalException {
+                        if( groupIds[index] != null ) {
+                            support.attachPolicyToGroup(policyId[0], groupIds[index]);
+                        }
+                    }
+                });
+            }
+            else {
+                tm.warn("No service actions are available to build a managed policy, skipping policy attachment");
+            }
+
+            BenchmarkStats listUsers = new BenchmarkStats("listUsersInPath");
+            int listed = 0;
+
+            listUsers.start();
+            long start = System.nanoTime();
+
+            for( CloudUser ignore : support.listUsersInPath(path) ) {
+                listed++;
+            }
+            listUsers.record(start);
+            listUsers.stop();
+            listUsers.report(tm);
+            tm.out("Users in Path", listed);
+
+            final AtomicInteger missingGroups = new AtomicInteger();
+            final AtomicInteger missingPolicies = new AtomicInteger();
+
+            runAll("listGroupsForUser", userCount, new Operation() {
+                @Override
+                public void run(int index) throws CloudException, InternalException {
+                    String groupId = groupIds[index % groupCount];
+
+                    if( userIds[index] == null || groupId == null ) {
+                        return;
+                    }
+                    for( CloudGroup group : support.listGroupsForUser(userIds[index]) ) {
+                        if( groupId.equals(group.getProviderGroupId()) ) {
+                            return;
+                        }
+                    }
+                    missingGroups.incrementAndGet();
+                }
+            });
+            if( policyId[0] != null ) {
+                runAll("listPolicies", groupCount, new Operation() {
+                    @Override
+                    public void run(int index) throws CloudException, InternalException {
+                        if( groupIds[index] == null ) {
+                            return;
+                        }
+                        for( CloudPolicy policy : support.listPolicies(CloudPolicyFilterOptions.getInstance(CloudPolicyType.ACCOUNT_MANAGED_POLICY).withProviderGroupId(groupIds[index])) ) {
+                            if( policyId[0].equals(policy.getProviderPolicyId()) ) {
+                                return;
+                            }
+                        }
+                        missingPolicies.incrementAndGet();
+                    }
+                });
+            }
+            assertEquals("Not every user was listed in " + path, count(userIds), listed);
+            assertEquals("Users are missing group memberships", 0, missingGroups.get());
+            assertEquals("Groups are missing the attached policy", 0, missingPolicies.get());
+            assertEquals("Not every user joined a group", 0, joins.getFailureCount());
+        }
+        finally {
+            tearDown(support, userIds, groupIds, policyId[0]);
+        }
+    }
+
+    private void tearDown(@Nonnull final IdentityAndAccessSupport support, @Nonnull final String[] userIds, @Nonnull final String[] groupIds, @Nullable final String policyId) throws InterruptedException {
+        final int groupCount = groupIds.length;
+        long start = System.nanoTime();
+
+        runAll("Leave Group", userIds.length, new Operation() {
+            @Override
+            public void run(int index) throws CloudException, InternalException {
+                if( userIds[index] != null && groupIds[index % groupCount] != null ) {
+                    support.removeUserFromGroup(userIds[index], groupIds[index % groupCount]);
+                }
+            }
+        });
+        if( policyId != null ) {
+            runAll("Detach Policy", groupCount, new Operation() {
+                @Override
+                public void run(int index) throws CloudException, InternalException {
+                    if( groupIds[index] != null ) {
+                        support.detachPolicyFromGroup(policyId, groupIds[index]);
+                    }
+                }
+            });
+        }
+        runAll("Remove User", userIds.length, new Operation() {
+            @Override
+            public void run(int index) throws CloudException, InternalException {
+                if( userIds[index] != null ) {
+                    support.removeUser(userIds[index]);
+                }
+            }
+        });
+        runAll("Remove Group", groupCount, new Operation() {
+            @Override
+            public void run(int index) throws CloudException, InternalException {
+                if( groupIds[index] != null ) {
+                    support.removeGroup(groupIds[index]);
+                }
+            }
+        });
+        if( policyId != null ) {
+            try {
+                support.removePolicy(policyId, CloudPolicyFilterOptions.getInstance(CloudPolicyType.ACCOUNT_MANAGED_POLICY));
+            }
+            catch( Throwable t ) {
+                tm.warn("Failed to remove benchmark policy " + policyId + ": " + t.getMessage());
+            }
+        }
+        tm.out("Teardown (ms)", (System.nanoTime() - start)/1000000L);
+    }
+
+    static private int count(@Nonnull String[] ids) {
+        int count = 0;
+
+        for( String id : ids ) {
+            if( id != null ) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -19,7 +19,6 @@
 
 package org.dasein.cloud.test.identity;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.identity.CloudGroup;
@@ -29,22 +28,13 @@ import org.dasein.cloud.identity.IdentityServices;
 import org.dasein.cloud.identity.SSHKeypair;
 import org.dasein.cloud.identity.ShellKeySupport;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.ResourceRegistry;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-import java.security.interfaces.RSAPublicKey;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.Callable;
 
 /**
  * Manages all identity resources for automated provisioning and de-provisioning during integration tests.
@@ -56,49 +46,17 @@ import java.util.Random;
 public class IdentityResources {
     static private final Logger logger = Logger.getLogger(IdentityResources.class);
 
-    static private final Random random = new Random();
-
-    private final HashMap<String,String> testGroups = new HashMap<String, String>();
-    private final HashMap<String,String> testKeys   = new HashMap<String, String>();
-    private final HashMap<String,String> testUsers  = new HashMap<String, String>();
+    private final ResourceRegistry<String> registry = new ResourceRegistry<String>();
+    private final ResourceRegistry.Labels<String> testGroups = registry.forType("groups");
+    private final ResourceRegistry.Labels<String> testKeys   = registry.forType("keys");
+    private final ResourceRegistry.Labels<String> testUsers  = registry.forType("users");
+    private final SSHKeyPool keyPool;
     private CloudProvider   provider;
 
     public IdentityResources(@Nonnull CloudProvider provider) {
         this.provider = provider;
-    }
-
-    private void write(byte[] str, OutputStream os) throws IOException {
-        for (int shift = 24; shift >= 0; shift -= 8)
-            os.write((str.length >>> shift) & 0xFF);
-        os.write(str);
-    }
-
-    /**
-     * @link http://stackoverflow.com/a/14582408/211197
-     * @return Encoded generated public key
-     */
-    private @Nullable String generateKey() {
-        KeyPairGenerator generator;
-        try {
-            generator = KeyPairGenerator.getInstance("RSA");
-            generator.initialize(2048);
-            KeyPair keyPair = generator.genKeyPair();
-            RSAPublicKey rsaPublicKey = (RSAPublicKey) keyPair.getPublic();
-            ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(byteOs);
-            dos.writeInt("ssh-rsa".getBytes().length);
-            dos.write("ssh-rsa".getBytes());
-            dos.writeInt(rsaPublicKey.getPublicExponent().toByteArray().length);
-            dos.write(rsaPublicKey.getPublicExponent().toByteArray());
-            dos.writeInt(rsaPublicKey.getModulus().toByteArray().length);
-            dos.write(rsaPublicKey.getModulus().toByteArray());
-            String publicKeyEncoded = new String(
-                    Base64.encodeBase64(byteOs.toByteArray()));
-            return "ssh-rsa " + publicKeyEncoded + " dasein";
-        }
-        catch( Throwable e ) {
-            return null;
-        }
+        // starts generating keys in the background so that keypair imports do not wait on key generation
+        this.keyPool = SSHKeyPool.getInstance();
     }
 
     public int close() {
@@ -188,7 +146,7 @@ public class IdentityResources {
         return count;
     }
 
-    public @Nullable String getTestGroupId(@Nonnull String label, boolean provisionIfNull) {
+    public @Nullable String getTestGroupId(@Nonnull final String label, boolean provisionIfNull) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,String> entry : testGroups.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -210,11 +168,16 @@ public class IdentityResources {
             IdentityServices services = provider.getIdentityServices();
 
             if( services != null ) {
-                IdentityAndAccessSupport support = services.getIdentityAndAccessSupport();
+                final IdentityAndAccessSupport support = services.getIdentityAndAccessSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionGroup(support, label, "dsngroup");
+                        return testGroups.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionGroup(support, label, "dsngroup");
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -225,7 +188,7 @@ public class IdentityResources {
         return null;
     }
 
-    public @Nullable String getTestKeypairId(@Nonnull String label, boolean provisionIfNull) {
+    public @Nullable String getTestKeypairId(@Nonnull final String label, boolean provisionIfNull) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,String> entry : testKeys.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -247,11 +210,16 @@ public class IdentityResources {
             IdentityServices services = provider.getIdentityServices();
 
             if( services != null ) {
-                ShellKeySupport support = services.getShellKeySupport();
+                final ShellKeySupport support = services.getShellKeySupport();
 
                 if( support != null ) {
                     try {
-                        return provisionKeypair(support, label, "dsnkp");
+                        return testKeys.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionKeypair(support, label, "dsnkp");
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -262,7 +230,7 @@ public class IdentityResources {
         return null;
     }
 
-    public @Nullable String getTestUserId(@Nonnull String label, boolean provisionIfNull, @Nullable String groupToJoin) {
+    public @Nullable String getTestUserId(@Nonnull final String label, boolean provisionIfNull, @Nullable final String groupToJoin) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,String> entry : testUsers.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -297,11 +265,16 @@ public class IdentityResources {
             IdentityServices services = provider.getIdentityServices();
 
             if( services != null ) {
-                IdentityAndAccessSupport support = services.getIdentityAndAccessSupport();
+                final IdentityAndAccessSupport support = services.getIdentityAndAccessSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionUser(support, label, "dsnuser", groupToJoin);
+                        return testUsers.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionUser(support, label, "dsnuser", groupToJoin);
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -403,12 +376,7 @@ public class IdentityResources {
         if( id == null ) {
             throw new GeneralCloudException("No group was created", CloudErrorType.GENERAL);
         }
-        synchronized( testGroups ) {
-            while( testGroups.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testGroups.put(label, id);
-        }
+        testGroups.register(label, id);
         return id;
     }
 
@@ -416,7 +384,7 @@ public class IdentityResources {
         String id = null;
 
         if( support.getCapabilities().identifyKeyImportRequirement().equals(Requirement.REQUIRED) ) {
-            String publicKey = generateKey();
+            String publicKey = keyPool.take();
             if( publicKey != null ) {
                 id = support.importKeypair(namePrefix+ (System.currentTimeMillis()%10000), publicKey).getProviderKeypairId();
             }
@@ -427,12 +395,7 @@ public class IdentityResources {
         if( id == null ) {
             throw new GeneralCloudException("No keypair was generated", CloudErrorType.GENERAL);
         }
-        synchronized( testKeys ) {
-            while( testKeys.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testKeys.put(label, id);
-        }
+        testKeys.register(label, id);
         return id;
     }
 
@@ -442,12 +405,7 @@ public class IdentityResources {
         if( id == null ) {
             throw new GeneralCloudException("No user was created", CloudErrorType.GENERAL);
         }
-        synchronized( testUsers ) {
-            while( testUsers.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testUsers.put(label, id);
-        }
+        testUsers.register(label, id);
         return id;
     }
 }
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.identity;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.test.DaseinTestManager;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Generates SSH public keys for keypair import on a background thread so that tests take a ready key instead of
+ * paying for key generation on the test thread. The pool holds dasein.identity.keypool.size keys (4 by default)
+ * and refills as keys are taken. The key type is set with dasein.identity.keytype: rsa (the default, 2048 bits),
+ * ecdsa (nistp256), or ed25519. Ed25519 needs a JVM that provides it; when the requested type cannot be generated,
+ * the pool falls back to RSA.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class SSHKeyPool {
+    static private final Logger logger = Logger.getLogger(SSHKeyPool.class);
+
+    static public final String RSA     = "rsa";
+    static public final String ECDSA   = "ecdsa";
+    static public final String ED25519 = "ed25519";
+
+    static private SSHKeyPool instance;
+
+    /**
+     * @return the shared key pool, started on first use
+     */
+    static public synchronized @Nonnull SSHKeyPool getInstance() {
+        if( instance == null ) {
+            String type = DaseinTestManager.getSystemProperty("dasein.identity.keytype");
+
+            instance = new SSHKeyPool(type == null ? RSA : type.trim().toLowerCase(Locale.ENGLISH), DaseinTestManager.getIntSystemProperty("dasein.identity.keypool.size", 4));
+        }
+        return instance;
+    }
+
+    private final LinkedBlockingQueue<String> keys;
+    private volatile String                   keyType;
+
+    private SSHKeyPool(@Nonnull String keyType, int size) {
+        this.keyType = keyType;
+        this.keys = new LinkedBlockingQueue<String>(Math.max(1, size));
+
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    while( !isInterrupted() ) {
+                        String key = generate();
+
+                        if( key == null ) {
+                            return;
+                        }
+                        // blocks while the pool is full, so this only works when keys are being taken
+                        keys.put(key);
+                    }
+                }
+                catch( InterruptedException ignore ) {
+                    // done
+                }
+            }
+        };
+
+        t.setName("SSH Key Pool");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public @Nonnull String getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Takes a pre-generated public key from the pool, generating one on the calling thread if the pool is empty.
+     * @return an OpenSSH-formatted public key or null if no key could be generated
+     */
+    public @Nullable String take() {
+        String key = keys.poll();
+
+        return (key == null ? generate() : key);
+    }
+
+    private @Nullable String generate() {
+        try {
+            if( ED25519.equals(keyType) ) {
+                return generateEd25519();
+            }
+            else if( ECDSA.equals(keyType) ) {
+                return generateECDSA();
+            }
+        }
+        catch( GeneralSecurityException e ) {
+            logger.warn("Unable to generate " + keyType + " keys, falling back to RSA: " + e.getMessage());
+            keyType = RSA;
+        }
+        catch( IOException e ) {
+            logger.error("Failed to encode " + keyType + " key: " + e.getMessage());
+            return null;
+        }
+        try {
+            return generateRSA();
+        }
+        catch( GeneralSecurityException | IOException e ) {
+            logger.error("Failed to generate RSA key: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @link http://stackoverflow.com/a/14582408/211197
+     */
+    private @Nonnull String generateRSA() throws GeneralSecurityException, IOException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+
+        generator.initialize(2048);
+        RSAPublicKey key = (RSAPublicKey)generator.genKeyPair().getPublic();
+
+        return encode("ssh-rsa", key.getPublicExponent().toByteArray(), key.getModulus().toByteArray());
+    }
+
+    private @Nonnull String generateECDSA() throws GeneralSecurityException, IOException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        ECPublicKey key = (ECPublicKey)generator.genKeyPair().getPublic();
+        byte[] point = new byte[65];
+
+        // uncompressed point: 0x04 || X || Y
+        point[0] = 0x04;
+        toUnsigned(key.getW().getAffineX(), point, 1);
+        toUnsigned(key.getW().getAffineY(), point, 33);
+        return encode("ecdsa-sha2-nistp256", "nistp256".getBytes("UTF-8"), point);
+    }
+
+    private @Nonnull String generateEd25519() throws GeneralSecurityException, IOException {
+        PublicKey key = KeyPairGenerator.getInstance("Ed25519").genKeyPair().getPublic();
+        byte[] encoded = key.getEncoded();
+
+        // the X.509 encoding ends with the raw 32 byte public key
+        return encode("ssh-ed25519", Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length));
+    }
+
+    static private void toUnsigned(@Nonnull BigInteger value, @Nonnull byte[] target, int offset) {
+        byte[] bytes = value.toByteArray();
+        int length = Math.min(bytes.length, 32);
+
+        System.arraycopy(bytes, bytes.length - length, target, offset + 32 - length, length);
+    }
+
+    static private @Nonnull String encode(@Nonnull String type, @Nonnull byte[] ... fields) throws IOException {
+        ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(byteOs);
+        byte[] name = type.getBytes("UTF-8");
+
+        dos.writeInt(name.length);
+        dos.write(name);
+        for( byte[] field : fields ) {
+            dos.writeInt(field.length);
+            dos.write(field);
+        }
+        return type + " " + new String(Base64.encodeBase64(byteOs.toByteArray()), "UTF-8") + " dasein";
+    }
+}
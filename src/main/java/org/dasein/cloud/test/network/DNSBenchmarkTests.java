@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.network.DNSRecord;
+import org.dasein.cloud.network.DNSRecordType;
+import org.dasein.cloud.network.DNSSupport;
+import org.dasein.cloud.network.DNSZone;
+import org.dasein.cloud.network.NetworkServices;
+import org.dasein.cloud.test.BenchmarkStats;
+import org.dasein.cloud.test.DaseinTestManager;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures DNS record throughput against a single test zone: concurrent record creation, listing of the
+ * zone by record type, and per-record versus batched record deletion. The number of records is set with
+ * dasein.benchmark.dns.records and the number of worker threads with dasein.benchmark.threads.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class DNSBenchmarkTests {
+    static private DaseinTestManager tm;
+
+    @BeforeClass
+    static public void configure() {
+        tm = new DaseinTestManager(DNSBenchmarkTests.class);
+    }
+
+    @AfterClass
+    static public void cleanUp() {
+        if( tm != null ) {
+            tm.close();
+        }
+    }
+
+    @Rule
+    public final TestName name = new TestName();
+
+    private String testZoneId;
+    private String testDomainName;
+    private int    recordCount;
+    private int    threadCount;
+
+    public DNSBenchmarkTests() { }
+
+    @Before
+    public void before() {
+        tm.begin(name.getMethodName());
+        assumeTrue(!tm.isTestSkipped());
+        recordCount = DaseinTestManager.getIntSystemProperty("dasein.benchmark.dns.records", 100);
+        threadCount = DaseinTestManager.getIntSystemProperty("dasein.benchmark.threads", 10);
+        testZoneId = tm.getTestZoneId(DaseinTestManager.STATEFUL, true);
+        if( testZoneId != null ) {
+            NetworkServices services = tm.getProvider().getNetworkServices();
+
+            if( services != null ) {
+                DNSSupport support = services.getDnsSupport();
+
+                if( support != null ) {
+                    try {
+                        DNSZone zone = support.getDnsZone(testZoneId);
+
+                        if( zone != null ) {
+                            testDomainName = zone.getDomainName();
+                        }
+                    }
+                    catch( Throwable ignore ) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        tm.end();
+    }
+
+    private @Nullable DNSSupport getSupport() throws CloudException, InternalException {
+        NetworkServices services = tm.getProvider().getNetworkServices();
+
+        if( services == null ) {
+            tm.ok("Network services are not supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return null;
+        }
+        DNSSupport support = services.getDnsSupport();
+
+        if( support == null ) {
+            tm.ok("DNS is not supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return null;
+        }
+        if( testZoneId == null || testDomainName == null ) {
+            if( !support.isSubscribed() ) {
+                tm.ok("Test was not run because this account is not subscribed for DNS support in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            }
+            else {
+                fail("No test DNS zone exists for the test " + name.getMethodName());
+            }
+            return null;
+        }
+        return support;
+    }
+
+    static private @Nonnull String toAddress(int index) {
+        return "10." + ((index >> 16) & 255) + "." + ((index >> 8) & 255) + "." + (index & 255);
+    }
+
+    private @Nonnull List<DNSRecord> addRecords(final @Nonnull DNSSupport support, final @Nonnull String prefix, int count, final @Nonnull BenchmarkStats stats) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            ArrayList<Future<DNSRecord>> results = new ArrayList<Future<DNSRecord>>();
+
+            stats.start();
+            for( int i=0; i<count; i++ ) {
+                final int index = i;
+
+                results.add(pool.submit(new Callable<DNSRecord>() {
+                    @Override
+                    public DNSRecord call() throws Exception {
+                        long start = System.nanoTime();
+
+                        try {
+                            DNSRecord record = support.addDnsRecord(testZoneId, DNSRecordType.A, prefix + index + "." + testDomainName, 3600, toAddress(index));
+
+                            stats.record(start);
+                            return record;
+                        }
+                        catch( CloudException | InternalException e ) {
+                            stats.fail();
+                            tm.warn("Failed to add record " + prefix + index + ": " + e.getMessage());
+                            return null;
+                        }
+                    }
+                }));
+            }
+            ArrayList<DNSRecord> records = new ArrayList<DNSRecord>();
+
+            for( Future<DNSRecord> result : results ) {
+                try {
+                    DNSRecord record = result.get();
+
+                    if( record != null ) {
+                        records.add(record);
+                    }
+                }
+                catch( ExecutionException e ) {
+                    stats.fail();
+                }
+            }
+            stats.stop();
+            return records;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private int countRecords(@Nonnull DNSSupport support, @Nonnull String prefix) throws CloudException, InternalException {
+        int count = 0;
+
+        for( DNSRecord record : support.listDnsRecords(testZoneId, DNSRecordType.A, null) ) {
+            if( record.getName() != null && record.getName().startsWith(prefix) ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void addRecordsConcurrently() throws CloudException, InternalException, InterruptedException {
+        DNSSupport support = getSupport();
+
+        if( support == null ) {
+            return;
+        }
+        String prefix = "dsnba" + (System.currentTimeMillis()%10000) + "-";
+        BenchmarkStats stats = new BenchmarkStats("Add");
+        List<DNSRecord> records = addRecords(support, prefix, recordCount, stats);
+
+        tm.out("Threads", threadCount);
+        stats.report(tm);
+        assertEquals("Not all DNS records were created", recordCount, records.size());
+        assertEquals("Not all created DNS records show up in the zone listing", recordCount, countRecords(support, prefix));
+    }
+
+    @Test
+    public void listRecordsAcrossTypes() throws CloudException, InternalException, InterruptedException {
+        DNSSupport support = getSupport();
+
+        if( support == null ) {
+            return;
+        }
+        int existing = countRecords(support, "dsnb");
+
+        if( existing < recordCount ) {
+            BenchmarkStats seed = new BenchmarkStats("Seed");
+
+            addRecords(support, "dsnbl" + (System.currentTimeMillis()%10000) + "-", recordCount - existing, seed);
+            tm.out("Seeded Records", seed.getCount());
+        }
+        int total = 0;
+        long totalMillis = 0L;
+
+        for( DNSRecordType type : DNSRecordType.values() ) {
+            long start = System.nanoTime();
+            int count = 0;
+
+            for( DNSRecord record : support.listDnsRecords(testZoneId, type, null) ) {
+                if( record != null ) {
+                    count++;
+                }
+            }
+            long millis = (System.nanoTime() - start)/1000000L;
+
+            tm.out("List " + type + " (records/ms)", count + "/" + millis);
+            total += count;
+            totalMillis += millis;
+        }
+        tm.out("Total Records", total);
+        tm.out("Total Listing Time (ms)", totalMillis);
+        if( totalMillis > 0L ) {
+            tm.out("Records/sec", String.format("%.2f", (total * 1000.0)/totalMillis));
+        }
+        assertTrue("The zone listing returned fewer A records than the benchmark created", countRecords(support, "dsnb") >= recordCount);
+    }
+
+    @Test
+    public void deleteRecordsIndividuallyVersusBatched() throws CloudException, InternalException, InterruptedException {
+        DNSSupport support = getSupport();
+
+        if( support == null ) {
+            return;
+        }
+        long suffix = System.currentTimeMillis()%10000;
+        String singlePrefix = "dsnbs" + suffix + "-";
+        String batchPrefix = "dsnbb" + suffix + "-";
+        List<DNSRecord> singles = addRecords(support, singlePrefix, recordCount, new BenchmarkStats("Seed"));
+        List<DNSRecord> batch = addRecords(support, batchPrefix, recordCount, new BenchmarkStats("Seed"));
+
+        BenchmarkStats single = new BenchmarkStats("Delete (single)");
+
+        single.start();
+        for( DNSRecord record : singles ) {
+            long start = System.nanoTime();
+
+            try {
+                support.deleteDnsRecords(record);
+                single.record(start);
+            }
+            catch( CloudException | InternalException e ) {
+                single.fail();
+                tm.warn("Failed to delete record " + record.getName() + ": " + e.getMessage());
+            }
+        }
+        single.stop();
+
+        BenchmarkStats batched = new BenchmarkStats("Delete (batch)");
+
+        batched.start();
+        long start = System.nanoTime();
+
+        support.deleteDnsRecords(batch.toArray(new DNSRecord[batch.size()]));
+        batched.record(start);
+        batched.stop();
+
+        single.report(tm);
+        tm.out("Delete (batch) Records", batch.size());
+        tm.out("Delete (batch) Duration (ms)", batched.getElapsedMillis());
+        if( batched.getElapsedMillis() > 0L ) {
+            tm.out("Delete (batch) Records/sec", String.format("%.2f", (batch.size() * 1000.0)/batched.getElapsedMillis()));
+        }
+        if( batched.getElapsedMillis() > 0L && singles.size() == batch.size() ) {
+            tm.out("Batch Speedup", String.format("%.2fx", ((double)single.getElapsedMillis())/batched.getElapsedMillis()));
+        }
+        assertEquals("Individually deleted DNS records still exist in the zone", 0, countRecords(support, singlePrefix));
+        assertEquals("Batch deleted DNS records still exist in the zone", 0, countRecords(support, batchPrefix));
+    }
+}
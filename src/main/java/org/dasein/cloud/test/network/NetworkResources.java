@@ -27,14 +27,17 @@ import org.dasein.cloud.compute.VmState;
 import org.dasein.cloud.dc.DataCenter;
 import org.dasein.cloud.network.*;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.ResourceRegistry;
 import org.dasein.cloud.test.compute.ComputeResources;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 /**
  * Caching of and access to network resources used in the various test cases.
@@ -52,21 +55,23 @@ public class NetworkResources {
     private CloudProvider provider;
     public final static String TEST_CIDR = "209.98.98.98/32";
 
-    private final Map<String, String> testGeneralFirewalls = new HashMap<String, String>();
-    private final Map<String, String> testIps4Free = new HashMap<String, String>();
-    private final Map<String, String> testIps6Free = new HashMap<String, String>();
-    private final Map<String, String> testIps4VLAN = new HashMap<String, String>();
-    private final Map<String, String> testIps6VLAN = new HashMap<String, String>();
-    private final Map<String, String> testLBs = new HashMap<String, String>();
-    private final Map<String, String> testSSLCertificates = new HashMap<String, String>();
-    private final Map<String, String> testNetworkFirewalls = new HashMap<String, String>();
-    private final Map<String, String> testSubnets = new HashMap<String, String>();
-    private final Map<String, String> testInternetGateways = new HashMap<String, String>();
-    private final Map<String, String> testVLANs = new HashMap<String, String>();
-    private final Map<String, String> testRouteTables = new HashMap<String, String>();
-    private final Map<String, String> testVLANFirewalls = new HashMap<String, String>();
-    private final Map<String, String> testZones = new HashMap<String, String>();
-    private final Map<String, String> testVpns = new HashMap<String, String>();
+    private final ResourceRegistry<String> registry = new ResourceRegistry<String>();
+    private final ResourceRegistry.Labels<String> testGeneralFirewalls = registry.forType("generalFirewalls");
+    private final ResourceRegistry.Labels<String> testIps4Free = registry.forType("ips4Free");
+    private final ResourceRegistry.Labels<String> testIps6Free = registry.forType("ips6Free");
+    private final ResourceRegistry.Labels<String> testIps4VLAN = registry.forType("ips4VLAN");
+    private final ResourceRegistry.Labels<String> testIps6VLAN = registry.forType("ips6VLAN");
+    private final ResourceRegistry.Labels<String> testLBs = registry.forType("lbs");
+    private final ResourceRegistry.Labels<String> testSSLCertificates = registry.forType("sslCertificates");
+    private final ResourceRegistry.Labels<String> testNetworkFirewalls = registry.forType("networkFirewalls");
+    private final ResourceRegistry.Labels<String> testSubnets = registry.forType("subnets");
+    private final ResourceRegistry.Labels<String> testInternetGateways = registry.forType("internetGateways");
+    private final ResourceRegistry.Labels<String> testVLANs = registry.forType("vlans");
+    private final ResourceRegistry.Labels<String> testRouteTables = registry.forType("routeTables");
+    private final ResourceRegistry.Labels<String> testVLANFirewalls = registry.forType("vlanFirewalls");
+    private final ResourceRegistry.Labels<String> testZones = registry.forType("zones");
+    private final ResourceRegistry.Labels<String> testVpns = registry.forType("vpns");
+    private StaticIpLeasePool  staticIpLeasePool;
     private HealthCheckOptions testHttpHealthCheckOptions;
     private HealthCheckOptions testTcpHealthCheckOptions;
 
@@ -145,6 +150,13 @@ public class NetworkResources {
             count += testIps6VLAN.size();
             DaseinTestManager.out(logger, null, "---> Static IPs (VLAN/IPv6)", testIps6VLAN.size() + " " + testIps6VLAN);
         }
+        if( staticIpLeasePool != null && staticIpLeasePool.getLeaseCount() > 0 ) {
+            if( !header ) {
+                logger.info("Provisioned Network Resources:");
+                header = true;
+            }
+            DaseinTestManager.out(logger, null, "---> Static IP Leases", staticIpLeasePool.getLeaseCount() + " leases over " + staticIpLeasePool.getRequestCount() + " requested addresses");
+        }
         testSubnets.remove(DaseinTestManager.STATELESS);
         if( !testSubnets.isEmpty() ) {
             if( !header ) {
@@ -214,16 +226,25 @@ public class NetworkResources {
 
                                 try {
                                     if( zone != null ) {
+                                        ArrayList<DNSRecord> records = new ArrayList<DNSRecord>();
+
                                         try {
                                             for( DNSRecord record : dnsSupport.listDnsRecords(zone.getProviderDnsZoneId(), DNSRecordType.A, null) ) {
+                                                records.add(record);
+                                            }
+                                            if( !records.isEmpty() ) {
+                                                // zones filled by the benchmarks hold thousands of records, so remove them in one call
+                                                dnsSupport.deleteDnsRecords(records.toArray(new DNSRecord[records.size()]));
+                                            }
+                                        } catch( Throwable t ) {
+                                            // fall back to one at a time in case the provider chokes on the batch
+                                            for( DNSRecord record : records ) {
                                                 try {
                                                     dnsSupport.deleteDnsRecords(record);
                                                 } catch( Throwable ignore ) {
                                                     // ignore
                                                 }
                                             }
-                                        } catch( Throwable ignore ) {
-                                            // ignore
                                         }
                                         dnsSupport.deleteDnsZone(zone.getProviderDnsZoneId());
                                         count++;
@@ -1074,8 +1095,8 @@ public class NetworkResources {
         return null;
     }
 
-    public @Nullable String getTestFirewallId(@Nonnull String label, boolean provisionIfNull, @Nullable String vlanId) {
-        Map<String, String> map = ( vlanId == null ? testGeneralFirewalls : testVLANFirewalls );
+    public @Nullable String getTestFirewallId(@Nonnull final String label, boolean provisionIfNull, @Nullable final String vlanId) {
+        ResourceRegistry.Labels<String> map = ( vlanId == null ? testGeneralFirewalls : testVLANFirewalls );
         if( label.equalsIgnoreCase(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : map.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -1101,7 +1122,12 @@ public class NetworkResources {
 
                 if( support != null ) {
                     try {
-                        return provisionFirewall(label, vlanId);
+                        return map.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionFirewall(label, vlanId);
+                            }
+                        });
                     } catch( Throwable ignore ) {
                         // ignore
                     }
@@ -1137,7 +1163,7 @@ public class NetworkResources {
         return testTcpHealthCheckOptions;
     }
 
-    public @Nullable String getTestLoadBalancerId(@Nonnull String label, @Nonnull String lbNamePrefix, boolean provisionIfNull, boolean withHealthCheck) {
+    public @Nullable String getTestLoadBalancerId(@Nonnull final String label, @Nonnull final String lbNamePrefix, boolean provisionIfNull, final boolean withHealthCheck) {
         if( label.equalsIgnoreCase(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testLBs.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -1163,7 +1189,12 @@ public class NetworkResources {
 
             if( services != null ) {
                 try {
-                    return provisionLoadBalancer(label, lbNamePrefix, false, false, withHealthCheck);
+                    return testLBs.provision(label, new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return provisionLoadBalancer(label, lbNamePrefix, false, false, withHealthCheck);
+                        }
+                    });
                 } catch( Throwable ignore ) {
                     // ignore
                 }
@@ -1172,7 +1203,7 @@ public class NetworkResources {
         return null;
     }
 
-    public @Nullable String getTestSSLCertificateName(@Nonnull String label, boolean provisionIfNull) {
+    public @Nullable String getTestSSLCertificateName(@Nonnull final String label, boolean provisionIfNull) {
         if( label.equalsIgnoreCase(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testSSLCertificates.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -1195,7 +1226,12 @@ public class NetworkResources {
 
             if( services != null ) {
                 try {
-                    return provisionSSLCertificate(label, null);
+                    return testSSLCertificates.provision(label, new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return provisionSSLCertificate(label, null);
+                        }
+                    });
                 } catch( Throwable ignore ) {
                     // ignore
                 }
@@ -1204,7 +1240,7 @@ public class NetworkResources {
         return null;
     }
 
-    public @Nullable String getTestNetworkFirewallId(@Nonnull String label, boolean provisionIfNull, @Nullable String vlanId) {
+    public @Nullable String getTestNetworkFirewallId(@Nonnull final String label, boolean provisionIfNull, @Nullable final String vlanId) {
         if( label.equalsIgnoreCase(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testNetworkFirewalls.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -1227,7 +1263,12 @@ public class NetworkResources {
 
             if( services != null ) {
                 try {
-                    return provisionNetworkFirewall(label, vlanId);
+                    return testNetworkFirewalls.provision(label, new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return provisionNetworkFirewall(label, vlanId);
+                        }
+                    });
                 } catch( Throwable ignore ) {
                     // ignore
                 }
@@ -1236,6 +1277,17 @@ public class NetworkResources {
         return null;
     }
 
+    /**
+     * Provides the shared pool of static IP addresses leased exclusively to stateful tests.
+     * @return the static IP lease pool
+     */
+    public synchronized @Nonnull StaticIpLeasePool getStaticIpLeasePool() {
+        if( staticIpLeasePool == null ) {
+            staticIpLeasePool = new StaticIpLeasePool(this, DaseinTestManager.getIntSystemProperty("dasein.ippool.size", 2));
+        }
+        return staticIpLeasePool;
+    }
+
     public @Nullable String getTestStaticIpId(@Nonnull String label, boolean provisionIfNull, @Nullable IPVersion version, boolean inVlan, @Nullable String vlanId) {
         if( version == null ) {
             NetworkServices services = provider.getNetworkServices();
@@ -1257,7 +1309,7 @@ public class NetworkResources {
                 return null;
             }
         }
-        Map<String, String> map;
+        ResourceRegistry.Labels<String> map;
 
         if( inVlan ) {
             map = ( version.equals(IPVersion.IPV4) ? testIps4VLAN : testIps6VLAN );
@@ -1328,7 +1380,7 @@ public class NetworkResources {
         return null;
     }
     
-    public @Nullable String getTestSubnetId(@Nonnull String label, boolean provisionIfNull, @Nullable String vlanId, @Nullable String preferredDataCenterId) {
+    public @Nullable String getTestSubnetId(@Nonnull final String label, boolean provisionIfNull, @Nullable String vlanId, @Nullable final String preferredDataCenterId) {
         
         String id;
         
@@ -1360,7 +1412,7 @@ public class NetworkResources {
             NetworkServices services = provider.getNetworkServices();
 
             if( services != null ) {
-                VLANSupport support = services.getVlanSupport();
+                final VLANSupport support = services.getVlanSupport();
 
                 if( support != null ) {
                     try {
@@ -1375,13 +1427,17 @@ public class NetworkResources {
                                         }
                                     }
                                 }
-                                id = provisionSubnet(support, label, vlanId, "dsnsub", preferredDataCenterId);
-                                // wait for subnet to be ready for describe
-                                try {
-                                    Thread.sleep(1000L);
-                                } catch( InterruptedException ignore ) {
-                                }
-                                return id;
+                                final String subnetVlanId = vlanId;
+
+                                return testSubnets.provision(label, new Callable<String>() {
+                                    @Override
+                                    public String call() throws Exception {
+                                        String subnetId = provisionSubnet(support, label, subnetVlanId, "dsnsub", preferredDataCenterId);
+
+                                        waitForSubnet(support, subnetId);
+                                        return subnetId;
+                                    }
+                                });
                             } catch( Throwable t ) {
                                 logger.warn("Failed to provision test subnet for " + vlanId + ": " + t.getMessage());
                             }
@@ -1396,7 +1452,7 @@ public class NetworkResources {
         return null;
     }
 
-    public @Nullable String getTestInternetGatewayId(@Nonnull String label, boolean provisionIfNull, @Nullable String vlanId, @Nullable String preferredDataCenterId) {
+    public @Nullable String getTestInternetGatewayId(@Nonnull final String label, boolean provisionIfNull, @Nullable String vlanId, @Nullable String preferredDataCenterId) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testInternetGateways.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -1417,7 +1473,7 @@ public class NetworkResources {
             NetworkServices services = provider.getNetworkServices();
 
             if( services != null ) {
-                VLANSupport support = services.getVlanSupport();
+                final VLANSupport support = services.getVlanSupport();
 
                 if( support != null ) {
                     try {
@@ -1437,7 +1493,14 @@ public class NetworkResources {
                                         return internetGatewayId;
                                     }
                                 }
-                                return provisionInternetGateway(support, label, vlanId);
+                                final String gatewayVlanId = vlanId;
+
+                                return testInternetGateways.provision(label, new Callable<String>() {
+                                    @Override
+                                    public String call() throws Exception {
+                                        return provisionInternetGateway(support, label, gatewayVlanId);
+                                    }
+                                });
                             } catch( Throwable t ) {
                                 logger.warn("Failed to provision test internet gateway for " + vlanId + ": " + t.getMessage());
                             }
@@ -1452,7 +1515,7 @@ public class NetworkResources {
         return null;
     }
 
-    public @Nullable String getTestVLANId(@Nonnull String label, boolean provisionIfNull, @Nullable String preferredDataCenterId) {
+    public @Nullable String getTestVLANId(@Nonnull final String label, boolean provisionIfNull, @Nullable final String preferredDataCenterId) {
         String id = null;
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testVLANs.entrySet() ) {
@@ -1476,13 +1539,18 @@ public class NetworkResources {
             NetworkServices services = provider.getNetworkServices();
 
             if( services != null ) {
-                VLANSupport support = services.getVlanSupport();
+                final VLANSupport support = services.getVlanSupport();
 
                 if( support != null ) {
                     try {
                         if (support.getCapabilities().allowsNewVlanCreation()) {
                             try {
-                                return provisionVLAN(support, label, "dsnnet", preferredDataCenterId);
+                                return testVLANs.provision(label, new Callable<String>() {
+                                    @Override
+                                    public String call() throws Exception {
+                                        return provisionVLAN(support, label, "dsnnet", preferredDataCenterId);
+                                    }
+                                });
                             } catch( Throwable ignore ) {
                                 return null;
                             }
@@ -1543,11 +1611,8 @@ public class NetworkResources {
                     try {
                         if( vlanId == null ) {
                             String vId = getTestVLANId(label, true, preferredDataCenterId);
-                            try {
-                                Thread.sleep(15000L);
-                            } catch( InterruptedException ignore ) {
-                            }
                             if( vId != null ) {
+                                waitForVlan(support, vId);
                                 return provisionRoutingTable(support, vId, label, "dsnrtb");
                             }
                         } else {
@@ -1562,7 +1627,7 @@ public class NetworkResources {
         return null;
     }
 
-    public @Nullable String getTestZoneId(@Nonnull String label, boolean provisionIfNull) {
+    public @Nullable String getTestZoneId(@Nonnull final String label, boolean provisionIfNull) {
         if( label.equalsIgnoreCase(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String, String> entry : testZones.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -1584,11 +1649,16 @@ public class NetworkResources {
             NetworkServices services = provider.getNetworkServices();
 
             if( services != null ) {
-                DNSSupport support = services.getDnsSupport();
+                final DNSSupport support = services.getDnsSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionDNSZone(support, label, "dasein", "org");
+                        return testZones.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionDNSZone(support, label, "dasein", "org");
+                            }
+                        });
                     } catch( Throwable ignore ) {
                         // ignore
                     }
@@ -1598,7 +1668,7 @@ public class NetworkResources {
         return null;
     }
 
-    public @Nullable String getTestVpnId(@Nonnull String label, boolean provisionIfNull, @Nullable String preferredDataCenterId) {
+    public @Nullable String getTestVpnId(@Nonnull final String label, boolean provisionIfNull, @Nullable final String preferredDataCenterId) {
         NetworkServices services = provider.getNetworkServices();
         String id;
         if( services != null ) {
@@ -1631,8 +1701,17 @@ public class NetworkResources {
                     }
                 }
                 if( provisionIfNull ) {
+                    if( id != null ) {
+                        // free the label so the replacement is tracked under it and found by concurrent callers
+                        testVpns.remove(label, id);
+                    }
                     try {
-                        return provisionVpn(label, "dsnvpn", preferredDataCenterId);
+                        return testVpns.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionVpn(label, "dsnvpn", preferredDataCenterId);
+                            }
+                        });
                     } catch( Throwable ignore ) {
                         // ignore
                     }
@@ -1654,7 +1733,7 @@ public class NetworkResources {
         if( version == null ) {
             throw new InternalException("No IP version is requestable");
         }
-        Map<String, String> map;
+        ResourceRegistry.Labels<String> map;
 
         if( vlanId == null ) {
             map = ( version.equals(IPVersion.IPV4) ? testIps4Free : testIps6Free );
@@ -1673,13 +1752,7 @@ public class NetworkResources {
                 id = support.requestForVLAN(version, vlanId);
             }
         }
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized ( map ) {
-            while( map.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            map.put(label, id);
-        }
+        map.register(label, id);
         return id;
     }
 
@@ -1736,19 +1809,9 @@ public class NetworkResources {
         String id = options.build(provider, false);
 
         if( vlanId == null ) {
-            synchronized ( testGeneralFirewalls ) {
-                while( testGeneralFirewalls.containsKey(label) ) {
-                    label = label + random.nextInt(9);
-                }
-                testGeneralFirewalls.put(label, id);
-            }
+            testGeneralFirewalls.register(label, id);
         } else {
-            synchronized ( testVLANFirewalls ) {
-                while( testVLANFirewalls.containsKey(label) ) {
-                    label = label + random.nextInt(9);
-                }
-                testVLANFirewalls.put(label, id);
-            }
+            testVLANFirewalls.register(label, id);
         }
         return id;
     }
@@ -1969,12 +2032,7 @@ public class NetworkResources {
         }
         String id = options.build(provider);
 
-        synchronized ( testLBs ) {
-            while( testLBs.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testLBs.put(label, id);
-        }
+        testLBs.register(label, id);
         return id;
     }
 
@@ -2047,12 +2105,7 @@ public class NetworkResources {
         final SSLCertificate sslCertificate = support.createSSLCertificate(options);
         final String certificateName = sslCertificate.getCertificateName();
 
-        synchronized ( testSSLCertificates ) {
-            while( testSSLCertificates.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testSSLCertificates.put(label, certificateName);
-        }
+        testSSLCertificates.register(label, certificateName);
         return certificateName;
     }
 
@@ -2083,12 +2136,7 @@ public class NetworkResources {
 
         String id = support.createFirewall(options);
 
-        synchronized ( testNetworkFirewalls ) {
-            while( testNetworkFirewalls.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testNetworkFirewalls.put(label, id);
-        }
+        testNetworkFirewalls.register(label, id);
         return id;
     }
 
@@ -2113,13 +2161,18 @@ public class NetworkResources {
             }
         }
         SubnetCreateOptions options;
+        String cidr;
 
+        // subnets may be provisioned concurrently by the topology builder
+        synchronized( cidrs ) {
+            cidr = cidrs[cidrCount];
+            cidrCount++;
+        }
         if( preferredDataCenterId == null ) {
-            options = SubnetCreateOptions.getInstance(vlanId, cidrs[cidrCount], namePrefix + ( System.currentTimeMillis() % 10000 ), "Dasein Cloud Integration test subnet");
+            options = SubnetCreateOptions.getInstance(vlanId, cidr, namePrefix + ( System.currentTimeMillis() % 10000 ), "Dasein Cloud Integration test subnet");
         } else {
-            options = SubnetCreateOptions.getInstance(vlanId, preferredDataCenterId, cidrs[cidrCount], namePrefix + (System.currentTimeMillis() % 10000), "Dasein Cloud Integration test subnet");
+            options = SubnetCreateOptions.getInstance(vlanId, preferredDataCenterId, cidr, namePrefix + (System.currentTimeMillis() % 10000), "Dasein Cloud Integration test subnet");
         }
-        cidrCount++;
         HashMap<String, Object> tags = new HashMap<String, Object>();
 
         tags.put("dsntestcase", "true");
@@ -2135,12 +2188,7 @@ public class NetworkResources {
             }
             throw e;
         }
-        synchronized ( testSubnets ) {
-            while( testSubnets.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testSubnets.put(label, id);
-        }
+        testSubnets.register(label, id);
         return id;
     }
 
@@ -2152,12 +2200,7 @@ public class NetworkResources {
             }
         }
         String id = support.createInternetGateway(vlanId);
-        synchronized ( testInternetGateways ) {
-            while( testInternetGateways.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testInternetGateways.put(label, id);
-        }
+        testInternetGateways.register(label, id);
         return id;
     }
 
@@ -2171,26 +2214,120 @@ public class NetworkResources {
         if( id == null ) {
             throw new GeneralCloudException("No VLAN was created", CloudErrorType.GENERAL);
         }
-        synchronized ( testVLANs ) {
-            while( testVLANs.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testVLANs.put(label, id);
+        testVLANs.register(label, id);
+        return id;
+    }
+
+    /**
+     * Provides the VLAN tracked under the label, provisioning it if there is none. Unlike {@link #provisionVLAN(VLANSupport, String, String, String)},
+     * this goes through the same single-flight provisioning as {@link #getTestVLANId(String, boolean, String)}, so
+     * concurrent callers for the label share one VLAN rather than each creating their own.
+     * @return the ID of the VLAN tracked under the label
+     */
+    public @Nonnull String provisionVLANForLabel(@Nonnull final VLANSupport support, @Nonnull final String label, @Nonnull final String namePrefix, @Nullable final String preferredDataCenterId) throws CloudException, InternalException {
+        String id;
+
+        try {
+            id = testVLANs.provision(label, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return provisionVLAN(support, label, namePrefix, preferredDataCenterId);
+                }
+            });
+        }
+        catch( CloudException e ) {
+            throw e;
+        }
+        catch( InternalException e ) {
+            throw e;
+        }
+        catch( Exception e ) {
+            throw new InternalException("Failed to provision a VLAN under " + label + ": " + e.getMessage());
+        }
+        if( id == null ) {
+            throw new GeneralCloudException("No VLAN was created", CloudErrorType.GENERAL);
         }
         return id;
     }
 
+    /**
+     * Provisions a VLAN along with the subnets, internet gateway, and routing table described by the spec,
+     * creating the pieces that do not depend on each other concurrently.
+     * @param spec the topology to build
+     * @return the resources that were built
+     * @throws CloudException an error occurred with the cloud provider building the topology
+     * @throws InternalException an error occurred within Dasein Cloud building the topology
+     */
+    public @Nonnull VlanTopologyBuilder.Topology provisionVlanTopology(@Nonnull VlanTopologyBuilder.Spec spec) throws CloudException, InternalException {
+        return new VlanTopologyBuilder(provider, this).build(spec);
+    }
+
+    /**
+     * Waits until the specified VLAN can be described and is available, for up to five minutes.
+     * @param support the VLAN support of the cloud under test
+     * @param vlanId the VLAN to wait on
+     */
+    public void waitForVlan(@Nonnull final VLANSupport support, @Nonnull final String vlanId) {
+        waitUntilAvailable("VLAN " + vlanId, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                VLAN vlan = support.getVlan(vlanId);
+
+                return ( vlan != null && ( vlan.getCurrentState() == null || VLANState.AVAILABLE.equals(vlan.getCurrentState()) ) );
+            }
+        });
+    }
+
+    /**
+     * Waits until the specified subnet can be described and is available, for up to five minutes.
+     * @param support the VLAN support of the cloud under test
+     * @param subnetId the subnet to wait on
+     */
+    public void waitForSubnet(@Nonnull final VLANSupport support, @Nonnull final String subnetId) {
+        waitUntilAvailable("Subnet " + subnetId, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                Subnet subnet = support.getSubnet(subnetId);
+
+                return ( subnet != null && ( subnet.getCurrentState() == null || SubnetState.AVAILABLE.equals(subnet.getCurrentState()) ) );
+            }
+        });
+    }
+
+    /**
+     * Polls the specified check with exponential backoff, from 500ms up to 10s between attempts, for up to five
+     * minutes. Failures of the check count as not yet available.
+     * @param resource a description of the resource for logging
+     * @param available returns true once the resource is available
+     */
+    private void waitUntilAvailable(@Nonnull String resource, @Nonnull Callable<Boolean> available) {
+        long timeout = System.currentTimeMillis() + 5 * 60 * 1000L;
+        long delay = 500L;
+
+        while( timeout > System.currentTimeMillis() ) {
+            try {
+                if( Boolean.TRUE.equals(available.call()) ) {
+                    return;
+                }
+            } catch( Throwable ignore ) {
+                // not yet visible
+            }
+            try {
+                Thread.sleep(delay);
+            } catch( InterruptedException ignore ) {
+                return;
+            }
+            delay = Math.min(delay * 2, 10000L);
+        }
+        logger.warn(resource + " did not become available within five minutes");
+    }
+
     public @Nonnull String provisionRoutingTable(@Nonnull VLANSupport support, @Nonnull String vlanId, @Nonnull String label, @Nonnull String namePrefix) throws CloudException, InternalException {
         String id = support.createRoutingTable(vlanId, namePrefix + ( System.currentTimeMillis() % 10000 ), "Test Routing Table for the Dasein Cloud Integration tests");
         if( id == null ) {
             throw new GeneralCloudException("No Routing Table was created", CloudErrorType.GENERAL);
         }
-        synchronized ( testRouteTables ) {
-            while( testRouteTables.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testRouteTables.put(label, id);
-        }
+        testRouteTables.register(label, id);
         return id;
     }
 
@@ -2198,12 +2335,7 @@ public class NetworkResources {
         String name = domainPrefix + ( System.currentTimeMillis() % 10000 ) + "." + tld;
         String id = support.createDnsZone(name, name, "Dasein Cloud Test Zone");
 
-        synchronized ( testZones ) {
-            while( testZones.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testZones.put(label, id);
-        }
+        testZones.register(label, id);
         return id;
     }
 
@@ -2219,12 +2351,7 @@ public class NetworkResources {
         String name = namePrefix + ( System.currentTimeMillis() % 10000 );
         VpnProtocol protocol = vpnSupport.getCapabilities().listSupportedVpnProtocols().iterator().next();
         Vpn vpn = vpnSupport.createVpn(VpnCreateOptions.getInstance(name, name, protocol));
-        synchronized ( testVpns ) {
-            while( testVpns.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testVpns.put(label, vpn.getProviderVpnId());
-        }
+        testVpns.register(label, vpn.getProviderVpnId());
         return vpn.getProviderVpnId();
     }
 }
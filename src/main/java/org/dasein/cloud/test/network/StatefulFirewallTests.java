@@ -41,6 +41,7 @@ import org.dasein.cloud.network.RuleTargetType;
 import org.dasein.cloud.network.Subnet;
 import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.FixtureLeases;
 import org.dasein.cloud.test.compute.ComputeResources;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -96,7 +97,7 @@ public class StatefulFirewallTests {
         assumeTrue(!tm.isTestSkipped());
 
         if( name.getMethodName().equals("createVLANFirewall") || name.getMethodName().equals("createVLANFirewallWithRule") ) {
-            testVLANId = tm.getTestVLANId(DaseinTestManager.STATEFUL, true, null);
+            testVLANId = tm.leaseTestVLANId(FixtureLeases.Mode.SHARED, null);
         }
         else if( name.getMethodName().equals("launchVM") || name.getMethodName().equals("verifyDuplicateRejection") ||
                 name.getMethodName().equals("createVLANFirewallAndAddAndRemoveIcmpRule") ) {
@@ -108,7 +109,7 @@ public class StatefulFirewallTests {
                 boolean vlanForVMProv = (support != null && !support.getCapabilities().identifyVlanRequirement().equals(Requirement.NONE));
 
                 if( vlanForVMProv ) {
-                    testVLANId = tm.getTestVLANId(DaseinTestManager.STATEFUL, true, null);
+                    testVLANId = tm.leaseTestVLANId(FixtureLeases.Mode.SHARED, null);
                     if( testVLANId == null ) {
                         testVLANId = tm.getTestVLANId(DaseinTestManager.STATELESS, false, null);
                     }
@@ -123,7 +124,7 @@ public class StatefulFirewallTests {
                     testFirewallId = tm.getTestVLANFirewallId(DaseinTestManager.STATEFUL, true, testVLANId);
                 }
                 else {
-                    testFirewallId = tm.getTestGeneralFirewallId(DaseinTestManager.STATEFUL, true);
+                    testFirewallId = tm.leaseTestGeneralFirewallId(FixtureLeases.Mode.SHARED);
                 }
             }
             catch( Throwable ignore ) {
@@ -134,14 +135,14 @@ public class StatefulFirewallTests {
             testFirewallId = tm.getTestAnyFirewallId(DaseinTestManager.REMOVED, true);
         }
         else if( name.getMethodName().startsWith("addGeneral") ) {
-            testFirewallId = tm.getTestGeneralFirewallId(DaseinTestManager.STATEFUL, true);
+            testFirewallId = tm.leaseTestGeneralFirewallId(FixtureLeases.Mode.EXCLUSIVE);
         }
         else if( name.getMethodName().startsWith("addVLAN") ) {
             testFirewallId = tm.getTestVLANFirewallId(DaseinTestManager.STATEFUL, true, null);
         }
         else if( name.getMethodName().startsWith("revoke") ) {
             if( name.getMethodName().startsWith("revokeGeneral") ) {
-                testFirewallId = tm.getTestGeneralFirewallId(DaseinTestManager.STATEFUL, true);
+                testFirewallId = tm.leaseTestGeneralFirewallId(FixtureLeases.Mode.EXCLUSIVE);
             }
             else {
                 testFirewallId = tm.getTestVLANFirewallId(DaseinTestManager.STATEFUL, true, null);
@@ -19,6 +19,7 @@
 
 package org.dasein.cloud.test.network;
 
+import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.OperationNotSupportedException;
@@ -30,6 +31,7 @@ import org.dasein.cloud.network.NetworkServices;
 import org.dasein.cloud.network.Permission;
 import org.dasein.cloud.network.Protocol;
 import org.dasein.cloud.network.RuleTarget;
+import org.dasein.cloud.test.BenchmarkStats;
 import org.dasein.cloud.test.DaseinTestManager;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -39,10 +41,23 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
 
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -95,7 +110,7 @@ public class StatefulNetworkFirewallTests {
         else if( name.getMethodName().equals("removeFirewall") ) {
             testFirewallId = tm.getTestNetworkFirewallId(DaseinTestManager.REMOVED, true, null);
         }
-        else if( name.getMethodName().startsWith("add") ) {
+        else if( name.getMethodName().startsWith("add") || name.getMethodName().equals("applyRuleMatrixConcurrently") ) {
             testFirewallId = tm.getTestNetworkFirewallId(DaseinTestManager.STATEFUL, true, null);
         }
         else if( name.getMethodName().startsWith("revoke") ) {
@@ -266,6 +281,90 @@ public class StatefulNetworkFirewallTests {
         assertFalse("Found the test rule among the rules for the network firewall post-removal", found);
     }
 
+    /**
+     * Authorizes a single rule of the matrix, retrying with backoff when the provider throttles the request.
+     * @return the ID of the new rule
+     */
+    private String authorizeWithRetry(@Nonnull NetworkFirewallSupport support, @Nonnull Direction direction, @Nonnull Permission permission, int p, int priority, @Nonnull BenchmarkStats stats, @Nonnull AtomicInteger throttled) throws CloudException, InternalException, InterruptedException {
+        RuleTarget source, destination;
+
+        if( direction.equals(Direction.INGRESS) ) {
+            source = RuleTarget.getCIDR("209.98.98.98/32");
+            destination = RuleTarget.getGlobal(testFirewallId);
+        }
+        else {
+            source = RuleTarget.getGlobal(testFirewallId);
+            destination = RuleTarget.getCIDR("209.98.98.98/32");
+        }
+        long backoff = 500L;
+
+        while( true ) {
+            long start = System.nanoTime();
+
+            try {
+                String ruleId = support.authorize(testFirewallId, direction, permission, source, Protocol.TCP, destination, p, p, priority);
+
+                stats.record(start);
+                return ruleId;
+            }
+            catch( CloudException e ) {
+                if( !CloudErrorType.THROTTLING.equals(e.getErrorType()) || backoff > 8000L ) {
+                    stats.fail();
+                    throw e;
+                }
+                throttled.incrementAndGet();
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+        }
+    }
+
+    /**
+     * Revokes a single rule of the matrix, retrying with backoff when the provider throttles the request.
+     */
+    private void revokeWithRetry(@Nonnull NetworkFirewallSupport support, @Nonnull String ruleId, @Nonnull BenchmarkStats stats, @Nonnull AtomicInteger throttled) throws CloudException, InternalException, InterruptedException {
+        long backoff = 500L;
+
+        while( true ) {
+            long start = System.nanoTime();
+
+            try {
+                support.revoke(ruleId);
+                stats.record(start);
+                return;
+            }
+            catch( CloudException e ) {
+                if( !CloudErrorType.THROTTLING.equals(e.getErrorType()) || backoff > 8000L ) {
+                    stats.fail();
+                    throw e;
+                }
+                throttled.incrementAndGet();
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+        }
+    }
+
+    private void await(@Nonnull ArrayList<Future<Void>> results, @Nonnull String action) throws InterruptedException {
+        for( Future<Void> result : results ) {
+            try {
+                result.get();
+            }
+            catch( ExecutionException e ) {
+                tm.warn("Failed to " + action + " rule: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    private @Nonnull Set<String> listRuleIds(@Nonnull NetworkFirewallSupport support) throws CloudException, InternalException {
+        HashSet<String> ids = new HashSet<String>();
+
+        for( FirewallRule rule : support.listRules(testFirewallId) ) {
+            ids.add(rule.getProviderRuleId());
+        }
+        return ids;
+    }
+
     @Test
     public void createFirewall() throws CloudException, InternalException {
         NetworkServices services = tm.getProvider().getNetworkServices();
@@ -352,6 +451,140 @@ public class StatefulNetworkFirewallTests {
         checkRemoveRule();
     }
 
+    /**
+     * Authorizes the full ingress/egress allow/deny rule matrix against the test network firewall from multiple
+     * threads, then concurrently revokes half of it and verifies the firewall ends up with exactly the surviving rules.
+     * Only runs in benchmark mode; dasein.benchmark.threads sets the parallelism and dasein.benchmark.firewall.ports
+     * sets how many ports are opened for each direction/permission pair.
+     * @throws CloudException an error occurred with the cloud provider managing rules
+     * @throws InternalException an error occurred within Dasein Cloud managing rules
+     * @throws InterruptedException the test was interrupted waiting on rule changes
+     */
+    @Test
+    public void applyRuleMatrixConcurrently() throws CloudException, InternalException, InterruptedException {
+        if( !DaseinTestManager.isBenchmarkEnabled() ) {
+            tm.ok("Benchmark mode is not enabled (dasein.benchmark=true), skipping the concurrent rule matrix");
+            return;
+        }
+        NetworkServices services = tm.getProvider().getNetworkServices();
+
+        if( services == null ) {
+            tm.ok("Network services are not supported in " + tm.getProvider().getCloudName());
+            return;
+        }
+        final NetworkFirewallSupport support = services.getNetworkFirewallSupport();
+
+        if( support == null ) {
+            tm.ok("Network firewalls are not supported in " + tm.getProvider().getCloudName());
+            return;
+        }
+        if( testFirewallId == null ) {
+            if( !support.getCapabilities().supportsNetworkFirewallCreation() ) {
+                tm.warn("Could not create a test firewall to verify the rule matrix, so this test is definitely not valid");
+            }
+            else {
+                fail("No test firewall even though these type of rules are supported");
+            }
+            return;
+        }
+        int threads = DaseinTestManager.getIntSystemProperty("dasein.benchmark.threads", 10);
+        int ports = DaseinTestManager.getIntSystemProperty("dasein.benchmark.firewall.ports", 5);
+        final Direction[] directions = { Direction.INGRESS, Direction.INGRESS, Direction.EGRESS, Direction.EGRESS };
+        final Permission[] permissions = { Permission.ALLOW, Permission.DENY, Permission.ALLOW, Permission.DENY };
+        final BenchmarkStats authorizeStats = new BenchmarkStats("Authorize");
+        final BenchmarkStats revokeStats = new BenchmarkStats("Revoke");
+        final AtomicInteger throttled = new AtomicInteger();
+        // keyed by the position in the matrix so the surviving half can be identified after the revokes
+        final Map<Integer,String> ruleIds = new ConcurrentHashMap<Integer, String>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try {
+            ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+
+            authorizeStats.start();
+            for( int i=0; i<ports; i++ ) {
+                for( int j=0; j<directions.length; j++ ) {
+                    final int cell = i*directions.length + j;
+                    final int p = 20000 + cell;
+                    final Direction direction = directions[j];
+                    final Permission permission = permissions[j];
+
+                    results.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            ruleIds.put(cell, authorizeWithRetry(support, direction, permission, p, cell + 1, authorizeStats, throttled));
+                            return null;
+                        }
+                    }));
+                }
+            }
+            await(results, "authorize");
+            authorizeStats.stop();
+
+            Set<String> listed = listRuleIds(support);
+
+            for( String id : ruleIds.values() ) {
+                assertTrue("Rule " + id + " was authorized but does not appear in the firewall rules", listed.contains(id));
+            }
+
+            HashSet<String> revoked = new HashSet<String>();
+            HashSet<String> kept = new HashSet<String>();
+
+            results.clear();
+            revokeStats.start();
+            for( Map.Entry<Integer,String> entry : ruleIds.entrySet() ) {
+                final String id = entry.getValue();
+
+                // revoke every other port so that both halves of the matrix are exercised under contention
+                if( (entry.getKey()/directions.length) % 2 == 0 ) {
+                    revoked.add(id);
+                    results.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            revokeWithRetry(support, id, revokeStats, throttled);
+                            return null;
+                        }
+                    }));
+                }
+                else {
+                    kept.add(id);
+                }
+            }
+            await(results, "revoke");
+            revokeStats.stop();
+
+            listed = listRuleIds(support);
+            for( String id : revoked ) {
+                assertFalse("Rule " + id + " was revoked but remains in the firewall rules", listed.contains(id));
+            }
+            for( String id : kept ) {
+                assertTrue("Rule " + id + " was not revoked but is missing from the firewall rules", listed.contains(id));
+            }
+            tm.out("Threads", threads);
+            tm.out("Matrix Size", ports*directions.length);
+            tm.out("Throttled Requests", throttled.get());
+            authorizeStats.report(tm);
+            revokeStats.report(tm);
+            assertEquals("Some rules in the matrix could not be authorized", ports*directions.length, ruleIds.size());
+            assertEquals("Some rules in the matrix could not be revoked", 0, revokeStats.getFailureCount());
+        }
+        finally {
+            pool.shutdownNow();
+            try {
+                Set<String> remaining = listRuleIds(support);
+
+                for( String id : ruleIds.values() ) {
+                    if( remaining.contains(id) ) {
+                        support.revoke(id);
+                    }
+                }
+            }
+            catch( Throwable ignore ) {
+                // ignore
+            }
+        }
+    }
+
     @Test
     public void removeFirewall() throws CloudException, InternalException {
         NetworkServices services = tm.getProvider().getNetworkServices();
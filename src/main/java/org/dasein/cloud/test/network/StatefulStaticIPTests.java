@@ -38,6 +38,7 @@ import org.dasein.cloud.network.Subnet;
 import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.network.VLANSupport;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.FixtureLeases;
 import org.dasein.cloud.test.compute.ComputeResources;
 import org.dasein.util.CalendarWrapper;
 import org.junit.After;
@@ -49,6 +50,7 @@ import org.junit.Test;
 import org.junit.rules.TestName;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import java.util.Random;
 import java.util.UUID;
@@ -97,7 +99,7 @@ public class StatefulStaticIPTests {
     public void before() {
         tm.begin(name.getMethodName());
         assumeTrue(!tm.isTestSkipped());
-        testVlanId = tm.getTestVLANId(DaseinTestManager.STATEFUL, true, null);
+        testVlanId = tm.leaseTestVLANId(FixtureLeases.Mode.SHARED, null);
 
         if( testVlanId != null ) {
             NetworkServices services = tm.getProvider().getNetworkServices();
@@ -116,24 +118,25 @@ public class StatefulStaticIPTests {
             }
         }
         if( name.getMethodName().equals("releaseFromPool") ) {
+            // the address is released to the provider, so it must not come from the lease pool
             testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.REMOVED, true, null, false, null);
             if( testIpAddressId == null ) {
                 testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.REMOVED, true, null, true, testVlanId);
             }
         }
         else if( name.getMethodName().startsWith("forward") ) {
-            testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL, true, null, false, null);
+            testIpAddressId = leaseAddress(null, false, null);
             if( testIpAddressId == null ) {
-                testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL, true, null, true, testVlanId);
+                testIpAddressId = leaseAddress(null, true, testVlanId);
             }
-            testVMId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, null);
+            testVMId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, null);
         }
         else if( name.getMethodName().startsWith("stopForward") ) {
-            testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL, true, null, false, null);
+            testIpAddressId = leaseAddress(null, false, null);
             if( testIpAddressId == null ) {
-                testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL, true, null, true, testVlanId);
+                testIpAddressId = leaseAddress(null, true, testVlanId);
             }
-            testVMId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, null);
+            testVMId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, null);
             if( testIpAddressId != null && testVMId != null ) {
                 NetworkServices services = tm.getProvider().getNetworkServices();
 
@@ -154,11 +157,11 @@ public class StatefulStaticIPTests {
             }
         }
         else if( name.getMethodName().equals("releaseFromVirtualMachine") ) {
-            testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL, true, null, false, null);
+            testIpAddressId = leaseAddress(null, false, null);
             if( testIpAddressId == null ) {
-                testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL, true, null, true, testVlanId);
+                testIpAddressId = leaseAddress(null, true, testVlanId);
             }
-            testVMId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, null);
+            testVMId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, null);
             if( testVMId != null ) {
                 NetworkServices services = tm.getProvider().getNetworkServices();
 
@@ -183,7 +186,7 @@ public class StatefulStaticIPTests {
                 version = IPVersion.IPV6;
             }
             if( !name.getMethodName().endsWith("InVLAN") ) {
-                testVMId = tm.getTestVMId(DaseinTestManager.STATEFUL, VmState.RUNNING, true, null);
+                testVMId = tm.leaseTestVMId(FixtureLeases.Mode.SHARED, VmState.RUNNING, null);
                 if( testVMId != null ) {
                     VirtualMachine vm = null;
 
@@ -199,7 +202,7 @@ public class StatefulStaticIPTests {
                         testVMId = null;
                     }
                     else if( vm != null ) {
-                        testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL, true, version, false, null);
+                        testIpAddressId = leaseAddress(version, false, null);
                     }
                 }
             }
@@ -276,7 +279,7 @@ public class StatefulStaticIPTests {
                         if (testVlanId != null) {
                             inVlan = true;
                         }
-                        testIpAddressId = tm.getTestStaticIpId(DaseinTestManager.STATEFUL + testVlanId, true, version, true, testVlanId);
+                        testIpAddressId = leaseAddress(version, true, testVlanId);
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -306,13 +309,11 @@ public class StatefulStaticIPTests {
                             // ignore
                         }
                     }
-                    if( testIpAddressId != null ) {
-                        try {
-                            support.releaseFromServer(testIpAddressId);
-                        }
-                        catch( Throwable ignore ) {
-                            // ignore
-                        }
+                    NetworkResources network = DaseinTestManager.getNetworkResources();
+
+                    if( testIpAddressId != null && network != null ) {
+                        // detaches the address and drops its rules before handing it to the next test
+                        network.getStaticIpLeasePool().release(support, testIpAddressId);
                     }
                 }
             }
@@ -324,6 +325,50 @@ public class StatefulStaticIPTests {
         }
     }
 
+    /**
+     * Leases an address from the shared {@link StaticIpLeasePool} for exclusive use by the current test. The
+     * address is returned to the pool in {@link #after()}.
+     * @param version the IP version to lease or null for the first requestable version
+     * @param forVLAN true for a VLAN address
+     * @param vlanId the VLAN for a VLAN address, defaults to the stateful test VLAN
+     * @return the leased address ID or null if none could be leased
+     */
+    private @Nullable String leaseAddress(@Nullable IPVersion version, boolean forVLAN, @Nullable String vlanId) {
+        NetworkServices services = tm.getProvider().getNetworkServices();
+        IpAddressSupport support = (services == null ? null : services.getIpAddressSupport());
+        NetworkResources network = DaseinTestManager.getNetworkResources();
+
+        if( support == null || network == null ) {
+            return null;
+        }
+        try {
+            if( forVLAN && vlanId == null ) {
+                vlanId = tm.leaseTestVLANId(FixtureLeases.Mode.SHARED, null);
+                if( vlanId == null ) {
+                    return null;
+                }
+            }
+            for( IPVersion v : support.getCapabilities().listSupportedIPVersions() ) {
+                if( (version == null || version.equals(v)) && support.getCapabilities().isRequestable(v) ) {
+                    try {
+                        String id = network.getStaticIpLeasePool().lease(support, v, forVLAN ? vlanId : null, CalendarWrapper.MINUTE*10L);
+
+                        if( id != null ) {
+                            return id;
+                        }
+                    }
+                    catch( Throwable t ) {
+                        tm.warn("Unable to lease a test " + v + " address: " + t.getMessage());
+                    }
+                }
+            }
+        }
+        catch( Throwable ignore ) {
+            // ignore
+        }
+        return null;
+    }
+
     private void request(@Nonnull IPVersion version, boolean forVLAN) throws CloudException, InternalException {
         NetworkServices services = tm.getProvider().getNetworkServices();
 
@@ -366,6 +411,8 @@ public class StatefulStaticIPTests {
             }
             tm.out("New " + version + " Address", addressId);
             assertNotNull("Requesting a new IP address may not result in a null address ID", addressId);
+            // let the other tests lease the new address rather than request yet another one
+            network.getStaticIpLeasePool().adopt(addressId, version, forVLAN ? testVlanId : null);
         }
         else {
             try {
@@ -31,6 +31,7 @@ import org.dasein.cloud.network.FirewallSupport;
 import org.dasein.cloud.network.NetworkServices;
 import org.dasein.cloud.network.Permission;
 import org.dasein.cloud.network.RuleTargetType;
+import org.dasein.cloud.test.BenchmarkStats;
 import org.dasein.cloud.test.DaseinTestManager;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -41,12 +42,20 @@ import org.junit.Test;
 import org.junit.rules.TestName;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeTrue;
@@ -692,6 +701,102 @@ public class StatelessFirewallTests {
         }
     }
 
+    /**
+     * Walks every firewall in the account and fetches the rules for each one concurrently, validating each rule as
+     * it is streamed back. Only runs in benchmark mode; the parallelism is set with dasein.benchmark.threads.
+     * @throws CloudException an error occurred with the cloud provider listing firewalls or rules
+     * @throws InternalException an error occurred within Dasein Cloud listing firewalls or rules
+     * @throws InterruptedException the test was interrupted waiting on rule fetches
+     */
+    @Test
+    public void listRulesForAllFirewalls() throws CloudException, InternalException, InterruptedException {
+        if( !DaseinTestManager.isBenchmarkEnabled() ) {
+            tm.ok("Benchmark mode is not enabled (dasein.benchmark=true), skipping the parallel rule fetch");
+            return;
+        }
+        NetworkServices services = tm.getProvider().getNetworkServices();
+
+        if( services == null ) {
+            tm.ok("No network services in " + tm.getProvider().getCloudName());
+            return;
+        }
+        final FirewallSupport support = services.getFirewallSupport();
+
+        if( support == null ) {
+            tm.ok("No firewall support in " + tm.getProvider().getCloudName());
+            return;
+        }
+        int threads = DaseinTestManager.getIntSystemProperty("dasein.benchmark.threads", 10);
+        final Semaphore inFlight = new Semaphore(threads * 2);
+        final AtomicInteger ruleCount = new AtomicInteger();
+        final BenchmarkStats stats = new BenchmarkStats("Firewall Rules");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+        try {
+            stats.start();
+            // submit fetches while the firewall list is still being walked, but never get too far ahead of the pool
+            for( Firewall fw : support.list() ) {
+                final String id = fw.getProviderFirewallId();
+
+                if( id == null ) {
+                    continue;
+                }
+                inFlight.acquire();
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        long start = System.nanoTime();
+                        int count = 0;
+
+                        try {
+                            for( FirewallRule rule : support.getRules(id) ) {
+                                assertRule(id, rule);
+                                count++;
+                            }
+                            stats.record(start);
+                            ruleCount.addAndGet(count);
+                            return count;
+                        }
+                        catch( CloudException | InternalException e ) {
+                            stats.fail();
+                            throw e;
+                        }
+                        finally {
+                            inFlight.release();
+                        }
+                    }
+                }));
+            }
+            for( Future<Integer> result : results ) {
+                try {
+                    result.get();
+                }
+                catch( ExecutionException e ) {
+                    if( e.getCause() instanceof AssertionError ) {
+                        throw (AssertionError)e.getCause();
+                    }
+                    tm.warn("Failed to fetch firewall rules: " + e.getCause().getMessage());
+                }
+            }
+            stats.stop();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        tm.out("Threads", threads);
+        tm.out("Firewalls", results.size());
+        tm.out("Total Rules", ruleCount.get());
+        if( stats.getElapsedMillis() > 0L ) {
+            tm.out("Rules/sec", String.format("%.2f", (ruleCount.get() * 1000.0)/stats.getElapsedMillis()));
+        }
+        stats.report(tm);
+        if( results.isEmpty() ) {
+            tm.warn("No firewalls exist in this account, so this test may not be valid");
+        }
+        assertEquals("Rules for some firewalls could not be fetched", 0, stats.getFailureCount());
+    }
+
     @Test
     public void ruleContent() throws CloudException, InternalException {
         NetworkServices services = tm.getProvider().getNetworkServices();
@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.network;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.network.IPVersion;
+import org.dasein.cloud.network.IpAddress;
+import org.dasein.cloud.network.IpAddressSupport;
+import org.dasein.cloud.network.IpForwardingRule;
+import org.dasein.util.CalendarWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A small pool of static IP addresses that are requested once and then leased exclusively to tests. Addresses
+ * are grouped by IP version and VLAN (or no VLAN for free-standing addresses). A lease hands out an idle address
+ * from the matching group, requests a new one while the group is below its capacity, and otherwise waits for
+ * another test to return one. Returned addresses are put back into an unassigned state with no forwarding rules
+ * before anyone else can lease them.
+ * <p>The capacity of each group is set with dasein.ippool.size (default 2). If the provider refuses a request
+ * (usually because of quota), the group is capped at its current size and callers wait for a returned address.</p>
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class StaticIpLeasePool {
+    static private final Logger logger = Logger.getLogger(StaticIpLeasePool.class);
+
+    static public final String LABEL = "leasepool";
+
+    private final NetworkResources                 resources;
+    private final int                              capacity;
+    private final Map<String,LinkedList<String>>   idle      = new HashMap<String, LinkedList<String>>();
+    private final Map<String,Integer>              owned     = new HashMap<String, Integer>();
+    private final Map<String,String>               leased    = new HashMap<String, String>();
+    private final Set<String>                      exhausted = new HashSet<String>();
+
+    private int leaseCount;
+    private int requestCount;
+
+    public StaticIpLeasePool(@Nonnull NetworkResources resources, int capacity) {
+        this.resources = resources;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    static private @Nonnull String toKey(@Nonnull IPVersion version, @Nullable String vlanId) {
+        return version + "/" + (vlanId == null ? "" : vlanId);
+    }
+
+    private int getOwned(@Nonnull String key) {
+        Integer count = owned.get(key);
+
+        return (count == null ? 0 : count);
+    }
+
+    /**
+     * Adds an address that a test requested on its own to the pool so later tests can lease it instead of
+     * requesting another one. Nothing is adopted once the group is at capacity.
+     * @param addressId the address to adopt
+     * @param version the IP version of the address
+     * @param vlanId the VLAN in which the address was requested, if any
+     * @return true if the address was added to the pool
+     */
+    public synchronized boolean adopt(@Nonnull String addressId, @Nonnull IPVersion version, @Nullable String vlanId) {
+        String key = toKey(version, vlanId);
+
+        if( leased.containsKey(addressId) ) {
+            return false;
+        }
+        LinkedList<String> addresses = idle.get(key);
+
+        if( addresses != null && addresses.contains(addressId) ) {
+            return false;
+        }
+        if( getOwned(key) >= capacity ) {
+            return false;
+        }
+        if( addresses == null ) {
+            addresses = new LinkedList<String>();
+            idle.put(key, addresses);
+        }
+        addresses.add(addressId);
+        owned.put(key, getOwned(key) + 1);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Leases an address for the exclusive use of the caller. The caller must hand the address back with
+     * {@link #release(IpAddressSupport, String)} when done with it.
+     * @param support the IP address support of the cloud under test
+     * @param version the IP version of the address
+     * @param vlanId the VLAN for a VLAN address or null for a free-standing address
+     * @param waitMillis how long to wait for another test to return an address when the pool is full
+     * @return the leased address ID or null if no address became available in time
+     * @throws CloudException the provider refused to provide an address and the pool holds none to wait for
+     * @throws InternalException an error occurred requesting a new address
+     */
+    public @Nullable String lease(@Nonnull IpAddressSupport support, @Nonnull IPVersion version, @Nullable String vlanId, long waitMillis) throws CloudException, InternalException {
+        String key = toKey(version, vlanId);
+        long timeout = System.currentTimeMillis() + waitMillis;
+
+        while( true ) {
+            synchronized( this ) {
+                while( true ) {
+                    LinkedList<String> addresses = idle.get(key);
+
+                    if( addresses != null && !addresses.isEmpty() ) {
+                        String id = addresses.removeFirst();
+
+                        leased.put(id, key);
+                        leaseCount++;
+                        return id;
+                    }
+                    int count = getOwned(key);
+
+                    if( count < capacity && !exhausted.contains(key) ) {
+                        // reserve the slot now, request the address outside the lock
+                        owned.put(key, count + 1);
+                        break;
+                    }
+                    long remaining = timeout - System.currentTimeMillis();
+
+                    if( remaining <= 0L ) {
+                        return null;
+                    }
+                    try { wait(remaining); }
+                    catch( InterruptedException e ) { return null; }
+                }
+            }
+            String id;
+
+            try {
+                id = resources.provisionAddress(support, LABEL, version, vlanId);
+            }
+            catch( CloudException | InternalException e ) {
+                synchronized( this ) {
+                    int count = getOwned(key) - 1;
+
+                    owned.put(key, count);
+                    notifyAll();
+                    if( count < 1 ) {
+                        throw e;
+                    }
+                    logger.warn("Unable to grow the " + key + " address pool beyond " + count + ", waiting on returned leases: " + e.getMessage());
+                    exhausted.add(key);
+                }
+                continue;
+            }
+            synchronized( this ) {
+                leased.put(id, key);
+                requestCount++;
+                leaseCount++;
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns a leased address to the pool. The address is stripped of its forwarding rules and released from
+     * any server before it becomes available again. Addresses that no longer exist are dropped from the pool.
+     * @param support the IP address support of the cloud under test
+     * @param addressId the leased address
+     */
+    public void release(@Nonnull IpAddressSupport support, @Nonnull String addressId) {
+        String key;
+
+        synchronized( this ) {
+            key = leased.remove(addressId);
+        }
+        if( key == null ) {
+            return;
+        }
+        boolean clean = reset(support, addressId);
+
+        synchronized( this ) {
+            if( clean ) {
+                LinkedList<String> addresses = idle.get(key);
+
+                if( addresses == null ) {
+                    addresses = new LinkedList<String>();
+                    idle.put(key, addresses);
+                }
+                addresses.add(addressId);
+            }
+            else {
+                owned.put(key, getOwned(key) - 1);
+                exhausted.remove(key);
+            }
+            notifyAll();
+        }
+    }
+
+    private boolean reset(@Nonnull IpAddressSupport support, @Nonnull String addressId) {
+        try {
+            IpAddress address = support.getIpAddress(addressId);
+
+            if( address == null ) {
+                return false;
+            }
+            try {
+                for( IpForwardingRule rule : support.listRules(addressId) ) {
+                    try {
+                        support.stopForward(rule.getProviderRuleId());
+                    }
+                    catch( Throwable t ) {
+                        logger.warn("Failed to remove forwarding rule " + rule.getProviderRuleId() + " from pooled address " + addressId + ": " + t.getMessage());
+                    }
+                }
+            }
+            catch( Throwable ignore ) {
+                // forwarding is not supported
+            }
+            if( address.isAssigned() ) {
+                support.releaseFromServer(addressId);
+
+                long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE*5L);
+
+                while( timeout > System.currentTimeMillis() ) {
+                    try { address = support.getIpAddress(addressId); }
+                    catch( Throwable ignore ) { }
+                    if( address == null ) {
+                        return false;
+                    }
+                    if( !address.isAssigned() ) {
+                        break;
+                    }
+                    try { Thread.sleep(5000L); }
+                    catch( InterruptedException ignore ) { }
+                }
+                if( address.isAssigned() ) {
+                    logger.warn("Pooled address " + addressId + " is still assigned, dropping it from the pool");
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch( Throwable t ) {
+            logger.warn("Failed to reset pooled address " + addressId + ": " + t.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized int getLeaseCount() {
+        return leaseCount;
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+}
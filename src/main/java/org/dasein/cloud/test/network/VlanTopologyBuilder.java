@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.network;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.dasein.cloud.Requirement;
+import org.dasein.cloud.network.NetworkServices;
+import org.dasein.cloud.network.VLANSupport;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a VLAN fixture with its subnets, internet gateway, and routing table from a declarative {@link Spec}.
+ * The VLAN is created first, or reused if one is already tracked under the spec label, and the builder waits for
+ * it to become available, since everything else lives inside it. The subnets, gateway, and routing table do not
+ * depend on each other and are created concurrently; the builder only waits for the subnets to become available
+ * before returning. Every resource is registered with {@link NetworkResources} under the spec label, so it is
+ * found by the usual getters and torn down with the rest of the network resources.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class VlanTopologyBuilder {
+    static private final Logger logger = Logger.getLogger(VlanTopologyBuilder.class);
+
+    /**
+     * Describes the VLAN topology to build.
+     */
+    static public class Spec {
+        static public @Nonnull Spec getInstance(@Nonnull String label) {
+            return new Spec(label);
+        }
+
+        private String   label;
+        private int      subnetCount;
+        private String[] dataCenterIds = new String[0];
+        private boolean  internetGateway;
+        private boolean  routingTable;
+
+        private Spec(@Nonnull String label) {
+            this.label = label;
+        }
+
+        /**
+         * Adds subnets to the topology. Subnets are spread round-robin across the specified data centers.
+         * @param count the number of subnets
+         * @param dataCenterIds the data centers for the subnets, none to let the provider decide
+         * @return this
+         */
+        public @Nonnull Spec withSubnets(int count, @Nonnull String ... dataCenterIds) {
+            this.subnetCount = count;
+            this.dataCenterIds = dataCenterIds;
+            return this;
+        }
+
+        public @Nonnull Spec withInternetGateway() {
+            this.internetGateway = true;
+            return this;
+        }
+
+        public @Nonnull Spec withRoutingTable() {
+            this.routingTable = true;
+            return this;
+        }
+
+        public @Nonnull String getLabel() {
+            return label;
+        }
+
+        public int getSubnetCount() {
+            return subnetCount;
+        }
+
+        public @Nonnull String[] getDataCenterIds() {
+            return dataCenterIds;
+        }
+
+        public boolean isInternetGateway() {
+            return internetGateway;
+        }
+
+        public boolean isRoutingTable() {
+            return routingTable;
+        }
+    }
+
+    /**
+     * The resources created for a {@link Spec}.
+     */
+    static public class Topology {
+        private String       vlanId;
+        private List<String> subnetIds = new ArrayList<String>();
+        private String       internetGatewayId;
+        private String       routingTableId;
+
+        private Topology(@Nonnull String vlanId) {
+            this.vlanId = vlanId;
+        }
+
+        public @Nonnull String getVlanId() {
+            return vlanId;
+        }
+
+        public @Nonnull List<String> getSubnetIds() {
+            return Collections.unmodifiableList(subnetIds);
+        }
+
+        public @Nullable String getInternetGatewayId() {
+            return internetGatewayId;
+        }
+
+        public @Nullable String getRoutingTableId() {
+            return routingTableId;
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return vlanId + " [subnets=" + subnetIds + ",gateway=" + internetGatewayId + ",routingTable=" + routingTableId + "]";
+        }
+    }
+
+    private CloudProvider    provider;
+    private NetworkResources resources;
+
+    public VlanTopologyBuilder(@Nonnull CloudProvider provider, @Nonnull NetworkResources resources) {
+        this.provider = provider;
+        this.resources = resources;
+    }
+
+    public @Nonnull Topology build(final @Nonnull Spec spec) throws CloudException, InternalException {
+        NetworkServices services = provider.getNetworkServices();
+
+        if( services == null ) {
+            throw new OperationNotSupportedException("This cloud does not support network services");
+        }
+        final VLANSupport support = services.getVlanSupport();
+
+        if( support == null ) {
+            throw new OperationNotSupportedException("This cloud does not support VLANs");
+        }
+        String[] dcs = spec.getDataCenterIds();
+        long start = System.currentTimeMillis();
+        // a concurrent getTestVLANId() for the same label waits for this VLAN instead of creating another
+        final String vlanId = resources.provisionVLANForLabel(support, spec.getLabel(), "dsnnet", dcs.length > 0 ? dcs[0] : null);
+        Topology topology = new Topology(vlanId);
+
+        // the only real dependency: subnets, gateways, and routing tables all need the VLAN to exist
+        resources.waitForVlan(support, vlanId);
+
+        ExecutorService pool = Executors.newFixedThreadPool(spec.getSubnetCount() + 2);
+
+        try {
+            ArrayList<Future<String>> subnets = new ArrayList<Future<String>>();
+            Future<String> gateway = null;
+            Future<String> routingTable = null;
+
+            if( spec.getSubnetCount() > 0 && !support.getCapabilities().getSubnetSupport().equals(Requirement.NONE) ) {
+                for( int i=0; i<spec.getSubnetCount(); i++ ) {
+                    final String dcId = (dcs.length > 0 ? dcs[i % dcs.length] : null);
+
+                    subnets.add(pool.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            String id = resources.provisionSubnet(support, spec.getLabel(), vlanId, "dsnsub", dcId);
+
+                            resources.waitForSubnet(support, id);
+                            return id;
+                        }
+                    }));
+                }
+            }
+            if( spec.isInternetGateway() && support.getCapabilities().supportsInternetGatewayCreation() ) {
+                gateway = pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return resources.provisionInternetGateway(support, spec.getLabel(), vlanId);
+                    }
+                });
+            }
+            if( spec.isRoutingTable() && support.getCapabilities().allowsNewRoutingTableCreation() ) {
+                routingTable = pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return resources.provisionRoutingTable(support, vlanId, spec.getLabel(), "dsnrtb");
+                    }
+                });
+            }
+            for( Future<String> subnet : subnets ) {
+                topology.subnetIds.add(await(subnet));
+            }
+            if( gateway != null ) {
+                topology.internetGatewayId = await(gateway);
+            }
+            if( routingTable != null ) {
+                topology.routingTableId = await(routingTable);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        logger.info("Built VLAN topology " + topology + " in " + (System.currentTimeMillis() - start) + "ms");
+        return topology;
+    }
+
+    private @Nullable String await(@Nonnull Future<String> result) throws CloudException, InternalException {
+        try {
+            return result.get();
+        }
+        catch( InterruptedException e ) {
+            throw new InternalException("Interrupted while building the VLAN topology");
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException("Failed to build the VLAN topology: " + cause.getMessage());
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.platform;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.platform.MQMessage;
+import org.dasein.cloud.platform.MQSupport;
+import org.dasein.cloud.platform.PlatformServices;
+import org.dasein.cloud.test.BenchmarkStats;
+import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.util.CalendarWrapper;
+import org.dasein.util.uom.time.Second;
+import org.dasein.util.uom.time.TimePeriod;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures message queue throughput through any {@link MQSupport} implementation: producers and consumers running
+ * concurrently against a fresh test queue, and the effect of the receive batch size on draining a queue. Sizes are
+ * set with dasein.benchmark.mq.messages, dasein.benchmark.mq.producers, dasein.benchmark.mq.consumers, and
+ * dasein.benchmark.mq.batch.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class MQBenchmarkTests {
+    static private final TimePeriod<Second> WAIT_TIME  = new TimePeriod<Second>(5, TimePeriod.SECOND);
+    // long enough that received messages do not reappear while the benchmark is still draining the queue
+    static private final TimePeriod<Second> VISIBILITY = new TimePeriod<Second>(600, TimePeriod.SECOND);
+
+    static private DaseinTestManager tm;
+
+    @BeforeClass
+    static public void configure() {
+        tm = new DaseinTestManager(MQBenchmarkTests.class);
+    }
+
+    @AfterClass
+    static public void cleanUp() {
+        if( tm != null ) {
+            tm.close();
+        }
+    }
+
+    @Rule
+    public final TestName name = new TestName();
+
+    private int    messageCount;
+    private String runId;
+    private String testQueueId;
+
+    public MQBenchmarkTests() { }
+
+    @Before
+    public void before() {
+        tm.begin(name.getMethodName());
+        assumeTrue(!tm.isTestSkipped());
+        messageCount = DaseinTestManager.getIntSystemProperty("dasein.benchmark.mq.messages", 1000);
+        runId = UUID.randomUUID().toString();
+
+        PlatformResources resources = DaseinTestManager.getPlatformResources();
+        PlatformServices services = tm.getProvider().getPlatformServices();
+
+        if( resources != null && services != null ) {
+            MQSupport support = services.getMessageQueueSupport();
+
+            if( support != null ) {
+                try {
+                    // every benchmark gets its own queue so that nothing left in flight by another test skews it
+                    testQueueId = resources.provisionMQ(support, "benchmark", "dsnmqb");
+                }
+                catch( Throwable ignore ) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        try {
+            testQueueId = null;
+        }
+        finally {
+            tm.end();
+        }
+    }
+
+    private @Nullable MQSupport getSupport() throws CloudException, InternalException {
+        PlatformServices services = tm.getProvider().getPlatformServices();
+
+        if( services == null ) {
+            tm.ok("Platform services are not supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return null;
+        }
+        MQSupport support = services.getMessageQueueSupport();
+
+        if( support == null ) {
+            tm.ok("Message queues are not supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return null;
+        }
+        if( testQueueId == null ) {
+            if( !support.isSubscribed() ) {
+                tm.ok("Not subscribed to message queue services in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            }
+            else {
+                fail("No test message queue exists for the test " + name.getMethodName());
+            }
+            return null;
+        }
+        return support;
+    }
+
+    private @Nonnull String toBody(int sequence) {
+        return runId + ":" + sequence + ":" + System.nanoTime();
+    }
+
+    /**
+     * Checks that a received message was sent by this run and has not been seen before, recording its end-to-end latency.
+     * @return true if the message is new to this run
+     */
+    private boolean accept(@Nullable MQMessage message, @Nonnull ConcurrentHashMap<Integer,Boolean> seen, @Nonnull BenchmarkStats latency) {
+        if( message == null || message.getMessageBody() == null ) {
+            return false;
+        }
+        String[] parts = message.getMessageBody().split(":");
+
+        if( parts.length != 3 || !parts[0].equals(runId) ) {
+            return false;
+        }
+        try {
+            if( seen.putIfAbsent(Integer.parseInt(parts[1]), true) != null ) {
+                return false; // redelivery
+            }
+            latency.record(Long.parseLong(parts[2]));
+            return true;
+        }
+        catch( NumberFormatException e ) {
+            return false;
+        }
+    }
+
+    private void send(@Nonnull final MQSupport support, @Nonnull ExecutorService pool, int producers, @Nonnull final BenchmarkStats sends) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+
+        for( int i=0; i<producers; i++ ) {
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int sequence;
+
+                    while( (sequence = next.getAndIncrement()) < messageCount ) {
+                        long start = System.nanoTime();
+
+                        try {
+                            support.sendMessage(testQueueId, toBody(sequence));
+                            sends.record(start);
+                        }
+                        catch( CloudException | InternalException e ) {
+                            sends.fail();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        await(results);
+    }
+
+    private void await(@Nonnull ArrayList<Future<Void>> results) throws InterruptedException {
+        for( Future<Void> result : results ) {
+            try {
+                result.get();
+            }
+            catch( ExecutionException e ) {
+                tm.warn("Benchmark worker failed: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs producers and consumers at the same time and reports send rate, receive rate, and the latency from
+     * sending a message to receiving it.
+     * @throws CloudException an error occurred with the cloud provider sending or receiving messages
+     * @throws InternalException an error occurred within Dasein Cloud sending or receiving messages
+     * @throws InterruptedException the test was interrupted waiting on producers or consumers
+     */
+    @Test
+    public void sendAndReceiveConcurrently() throws CloudException, InternalException, InterruptedException {
+        final MQSupport support = getSupport();
+
+        if( support == null ) {
+            return;
+        }
+        int producers = DaseinTestManager.getIntSystemProperty("dasein.benchmark.mq.producers", 4);
+        int consumers = DaseinTestManager.getIntSystemProperty("dasein.benchmark.mq.consumers", 4);
+        final int batch = DaseinTestManager.getIntSystemProperty("dasein.benchmark.mq.batch", 10);
+        final BenchmarkStats sends = new BenchmarkStats("Send");
+        final BenchmarkStats receives = new BenchmarkStats("Receive");
+        final BenchmarkStats latency = new BenchmarkStats("End-to-End");
+        final ConcurrentHashMap<Integer,Boolean> seen = new ConcurrentHashMap<Integer, Boolean>();
+        final long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
+        final AtomicBoolean producersDone = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(producers + consumers);
+
+        try {
+            ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+
+            receives.start();
+            latency.start();
+            for( int i=0; i<consumers; i++ ) {
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // failed sends never arrive, so once the producers are done only the sent messages are awaited
+                        while( seen.size() < messageCount && System.currentTimeMillis() < timeout && !(producersDone.get() && seen.size() >= sends.getCount()) ) {
+                            long start = System.nanoTime();
+
+                            try {
+                                for( MQMessage message : support.receiveMessages(testQueueId, WAIT_TIME, batch, VISIBILITY) ) {
+                                    accept(message, seen, latency);
+                                }
+                                receives.record(start);
+                            }
+                            catch( CloudException | InternalException e ) {
+                                receives.fail();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            sends.start();
+            send(support, pool, producers, sends);
+            sends.stop();
+            producersDone.set(true);
+            await(results);
+            receives.stop();
+            latency.stop();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        tm.out("Producers", producers);
+        tm.out("Consumers", consumers);
+        tm.out("Receive Batch Size", batch);
+        sends.report(tm);
+        tm.out("Receive Calls", receives.getCount());
+        tm.out("Receive Failures", receives.getFailureCount());
+        tm.out("Received Messages/sec", String.format("%.2f", receives.getElapsedMillis() <= 0L ? 0.0 : (seen.size() * 1000.0)/receives.getElapsedMillis()));
+        latency.report(tm);
+        assertEquals("Not every sent message was received", sends.getCount(), seen.size());
+    }
+
+    /**
+     * Fills the queue and drains it from a single consumer once for each receive batch size, reporting how many
+     * calls and how much time it takes to drain the same number of messages.
+     * @throws CloudException an error occurred with the cloud provider sending or receiving messages
+     * @throws InternalException an error occurred within Dasein Cloud sending or receiving messages
+     * @throws InterruptedException the test was interrupted waiting on producers
+     */
+    @Test
+    public void receiveBatchSizes() throws CloudException, InternalException, InterruptedException {
+        MQSupport support = getSupport();
+
+        if( support == null ) {
+            return;
+        }
+        int producers = DaseinTestManager.getIntSystemProperty("dasein.benchmark.mq.producers", 4);
+        int largest = DaseinTestManager.getIntSystemProperty("dasein.benchmark.mq.batch", 10);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+
+        ArrayList<Integer> batchSizes = new ArrayList<Integer>();
+
+        for( int batch = 1; batch < largest; batch *= 2 ) {
+            batchSizes.add(batch);
+        }
+        batchSizes.add(largest);
+        try {
+            for( int batch : batchSizes ) {
+                BenchmarkStats sends = new BenchmarkStats("Send");
+                BenchmarkStats receives = new BenchmarkStats("Batch " + batch);
+                BenchmarkStats latency = new BenchmarkStats("Batch " + batch + " End-to-End");
+                ConcurrentHashMap<Integer,Boolean> seen = new ConcurrentHashMap<Integer, Boolean>();
+                long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
+
+                // a fresh run ID per batch size so that nothing from the previous round is counted
+                runId = UUID.randomUUID().toString();
+                send(support, pool, producers, sends);
+                receives.start();
+                latency.start();
+                while( seen.size() < sends.getCount() && System.currentTimeMillis() < timeout ) {
+                    long start = System.nanoTime();
+
+                    try {
+                        for( MQMessage message : support.receiveMessages(testQueueId, WAIT_TIME, batch, VISIBILITY) ) {
+                            accept(message, seen, latency);
+                        }
+                        receives.record(start);
+                    }
+                    catch( CloudException | InternalException e ) {
+                        receives.fail();
+                    }
+                }
+                receives.stop();
+                latency.stop();
+                tm.out("Batch " + batch + " Messages", seen.size());
+                tm.out("Batch " + batch + " Messages/sec", String.format("%.2f", receives.getElapsedMillis() <= 0L ? 0.0 : (seen.size() * 1000.0)/receives.getElapsedMillis()));
+                receives.report(tm);
+                assertEquals("Not every sent message was received with a batch size of " + batch, sends.getCount(), seen.size());
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
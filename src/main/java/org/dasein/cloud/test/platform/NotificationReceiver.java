@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.platform;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.test.BenchmarkStats;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stand-in HTTP endpoint that runs inside the test JVM and receives push notification deliveries. Messages
+ * published by a benchmark carry a run ID, a sequence number, and the {@link System#nanoTime()} at which they were
+ * published, so each delivery can be matched to its publish call and its latency recorded. Subscription
+ * confirmation requests that carry a SubscribeURL are confirmed automatically, and callers can wait for that
+ * confirmation with {@link #awaitConfirmation(long)} before publishing.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class NotificationReceiver implements Closeable {
+    static private final Logger  logger       = Logger.getLogger(NotificationReceiver.class);
+    static private final Pattern SUBSCRIBE_URL = Pattern.compile("\"SubscribeURL\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final HttpServer                         server;
+    private final ExecutorService                    workers;
+    private final String                             runId;
+    private final Pattern                            token;
+    private final BenchmarkStats                     latency;
+    private final ConcurrentHashMap<Integer,Boolean> delivered = new ConcurrentHashMap<Integer, Boolean>();
+    private final CountDownLatch                     confirmed = new CountDownLatch(1);
+
+    /**
+     * Starts a receiver listening on the specified port of all local interfaces.
+     * @param port the port to listen on, or 0 to pick any free port
+     * @param runId the run ID that identifies messages published by the current benchmark
+     * @param latency the stats into which publish-to-delivery latencies are recorded
+     * @throws IOException the listener could not be started
+     */
+    public NotificationReceiver(int port, @Nonnull String runId, @Nonnull BenchmarkStats latency) throws IOException {
+        this.runId = runId;
+        this.token = Pattern.compile(Pattern.quote(runId) + ":(\\d+):(\\d+)");
+        this.latency = latency;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        workers = Executors.newFixedThreadPool(4);
+        server.setExecutor(workers);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    receive(read(exchange.getRequestBody()));
+                }
+                finally {
+                    exchange.sendResponseHeaders(200, -1);
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public @Nonnull String getRunId() {
+        return runId;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getDeliveredCount() {
+        return delivered.size();
+    }
+
+    /**
+     * @param sequence the sequence number to publish
+     * @return the message body to publish for the specified sequence number
+     */
+    public @Nonnull String toMessage(int sequence) {
+        return runId + ":" + sequence + ":" + System.nanoTime();
+    }
+
+    /**
+     * Waits until a subscription confirmation request has arrived and been confirmed successfully. Messages published
+     * while a subscription is still pending confirmation are dropped by providers that require confirmation.
+     * @param timeoutMillis the maximum time to wait
+     * @return true if a subscription was confirmed in time
+     * @throws InterruptedException the wait was interrupted
+     */
+    public boolean awaitConfirmation(long timeoutMillis) throws InterruptedException {
+        return confirmed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until the specified number of distinct messages from this run have arrived or the timeout expires.
+     * @param count the number of deliveries to wait for
+     * @param timeoutMillis the maximum time to wait
+     * @return true if every message arrived in time
+     * @throws InterruptedException the wait was interrupted
+     */
+    public boolean awaitDeliveries(int count, long timeoutMillis) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + timeoutMillis;
+
+        synchronized( delivered ) {
+            while( delivered.size() < count ) {
+                long remaining = timeout - System.currentTimeMillis();
+
+                if( remaining <= 0L ) {
+                    return false;
+                }
+                delivered.wait(Math.min(remaining, 1000L));
+            }
+        }
+        return true;
+    }
+
+    private void receive(@Nonnull String body) {
+        Matcher m = SUBSCRIBE_URL.matcher(body);
+
+        if( m.find() ) {
+            confirm(m.group(1).replace("\\/", "/"));
+            return;
+        }
+        m = token.matcher(body);
+        if( m.find() ) {
+            try {
+                if( delivered.putIfAbsent(Integer.parseInt(m.group(1)), true) == null ) {
+                    latency.record(Long.parseLong(m.group(2)));
+                    synchronized( delivered ) {
+                        delivered.notifyAll();
+                    }
+                }
+            }
+            catch( NumberFormatException ignore ) {
+                // not one of ours
+            }
+        }
+    }
+
+    private void confirm(@Nonnull String subscribeUrl) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection)new URL(subscribeUrl).openConnection();
+
+            try {
+                int code = connection.getResponseCode();
+
+                logger.info("Confirming notification subscription: " + code);
+                if( code >= 200 && code < 300 ) {
+                    confirmed.countDown();
+                }
+            }
+            finally {
+                connection.disconnect();
+            }
+        }
+        catch( IOException e ) {
+            logger.warn("Unable to confirm notification subscription: " + e.getMessage());
+        }
+    }
+
+    static private @Nonnull String read(@Nonnull InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+
+        try {
+            while( (count = input.read(buffer)) != -1 ) {
+                out.write(buffer, 0, count);
+            }
+        }
+        finally {
+            input.close();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -24,20 +24,28 @@ import org.dasein.cloud.*;
 import org.dasein.cloud.platform.*;
 import org.dasein.cloud.storage.Blob;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.ResourceRegistry;
 import org.dasein.cloud.test.storage.StorageResources;
 import org.dasein.util.CalendarWrapper;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Manages all identity resources for automated provisioning and de-provisioning during integration tests.
@@ -52,10 +60,11 @@ public class PlatformResources {
 
     static private final Random random = new Random();
 
-    private final HashMap<String,String> testCDNs   = new HashMap<String, String>();
-    private final HashMap<String,String> testQueues = new HashMap<String, String>();
-    private final HashMap<String,String> testRDBMS  = new HashMap<String, String>();
-    private final HashMap<String,String> testTopics = new HashMap<String, String>();
+    private final ResourceRegistry<String> registry = new ResourceRegistry<String>();
+    private final ResourceRegistry.Labels<String> testCDNs   = registry.forType("cdns");
+    private final ResourceRegistry.Labels<String> testQueues = registry.forType("queues");
+    private final ResourceRegistry.Labels<String> testRDBMS  = registry.forType("rdbms");
+    private final ResourceRegistry.Labels<String> testTopics = registry.forType("topics");
 
     private CloudProvider   provider;
 
@@ -153,61 +162,99 @@ public class PlatformResources {
                 }
 
                 RelationalDatabaseSupport rdbmsSupport = services.getRelationalDatabaseSupport();
+                ArrayList<Future<Boolean>> databases = new ArrayList<Future<Boolean>>();
+
+                // databases still being created are only registered once the create call returns
+                for( Future<String> pending : pendingDatabases ) {
+                    try {
+                        pending.get(CalendarWrapper.MINUTE*30L, TimeUnit.MILLISECONDS);
+                    }
+                    catch( ExecutionException e ) {
+                        logger.warn("Failed to provision test relational database: " + e.getCause().getMessage());
+                    }
+                    catch( TimeoutException e ) {
+                        logger.warn("Timed out waiting on the provisioning of a test relational database");
+                    }
+                }
 
                 if( rdbmsSupport != null ) {
+                    // every database waits in its own task so that one slow database does not hold up the others
                     for( Map.Entry<String,String> entry : testRDBMS.entrySet() ) {
                         if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                            try {
-                                long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE*20L);
-                                Database db = rdbmsSupport.getDatabase(entry.getValue());
-
-                                while( timeout > System.currentTimeMillis() ) {
-                                    if( canRemove(db) ) {
-                                        break;
-                                    }
-                                    try { Thread.sleep(15000L); }
-                                    catch( InterruptedException ignore ) { }
-                                    try { db = rdbmsSupport.getDatabase(db.getProviderDatabaseId()); }
-                                    catch( Throwable ignore ) { }
-                                }
-                                if( db != null && !db.getCurrentState().equals(DatabaseState.DELETED) && !db.getCurrentState().equals(DatabaseState.DELETING) ) {
-                                    rdbmsSupport.removeDatabase(entry.getValue());
-                                    count++;
-                                }
-                                else {
-                                    count++;
-                                }
-                            }
-                            catch( Throwable t ) {
-                                logger.warn("Failed to de-provision test relational database " + entry.getValue() + ": " + t.getMessage());
-                            }
+                            databases.add(cleanDatabase(rdbmsSupport, entry.getValue()));
                         }
                     }
                 }
-
-                // no wait for CDN stuff
-                boolean done;
-
-                do {
-                    done = true;
-                    try { Thread.sleep(15000L); }
-                    catch( InterruptedException ignore ) { }
-                    for( Future<Boolean> result : results ) {
-                        if( !result.isDone() ) {
-                            done = false;
-                            break;
+                for( Future<Boolean> result : databases ) {
+                    try {
+                        if( result.get(CalendarWrapper.MINUTE*25L, TimeUnit.MILLISECONDS) ) {
+                            count++;
                         }
                     }
-                } while( !done );
+                    catch( ExecutionException e ) {
+                        logger.warn("Failed to de-provision test relational database: " + e.getCause().getMessage());
+                    }
+                    catch( TimeoutException e ) {
+                        logger.warn("Timed out de-provisioning test relational database");
+                    }
+                }
+                for( Future<Boolean> result : results ) {
+                    try {
+                        result.get(CalendarWrapper.MINUTE*30L, TimeUnit.MILLISECONDS);
+                    }
+                    catch( ExecutionException e ) {
+                        logger.warn("Failed to de-provision test CDN: " + e.getCause().getMessage());
+                    }
+                    catch( TimeoutException e ) {
+                        logger.warn("Timed out de-provisioning test CDN");
+                    }
+                }
             }
         }
         catch( Throwable ignore ) {
             // ignore
         }
+        finally {
+            service.shutdown();
+            try {
+                if( !service.awaitTermination(1L, TimeUnit.MINUTES) ) {
+                    service.shutdownNow();
+                }
+            }
+            catch( InterruptedException e ) {
+                service.shutdownNow();
+            }
+        }
         return count;
     }
 
-    ExecutorService service = Executors.newCachedThreadPool();
+    private final ExecutorService service = Executors.newCachedThreadPool();
+
+    private final ConcurrentLinkedQueue<Future<String>> pendingDatabases = new ConcurrentLinkedQueue<Future<String>>();
+
+    private Future<Boolean> cleanDatabase(final @Nonnull RelationalDatabaseSupport support, final @Nonnull String databaseId) {
+        return service.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE*20L);
+                Database db = support.getDatabase(databaseId);
+
+                while( timeout > System.currentTimeMillis() ) {
+                    if( canRemove(db) ) {
+                        break;
+                    }
+                    try { Thread.sleep(15000L); }
+                    catch( InterruptedException e ) { return false; }
+                    try { db = support.getDatabase(databaseId); }
+                    catch( Throwable ignore ) { }
+                }
+                if( db != null && !db.getCurrentState().equals(DatabaseState.DELETED) && !db.getCurrentState().equals(DatabaseState.DELETING) ) {
+                    support.removeDatabase(databaseId);
+                }
+                return true;
+            }
+        });
+    }
 
     private Future<Boolean> cleanCDN(final @Nonnull CDNSupport support, final @Nonnull String distributionId) {
         return service.submit(new Callable<Boolean>() {
@@ -259,7 +306,7 @@ public class PlatformResources {
         return count;
     }
 
-    public @Nullable String getTestDistributionId(@Nonnull String label, boolean provisionIfNull, @Nullable String origin) {
+    public @Nullable String getTestDistributionId(@Nonnull final String label, boolean provisionIfNull, @Nullable final String origin) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,String> entry : testCDNs.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -281,11 +328,16 @@ public class PlatformResources {
             PlatformServices services = provider.getPlatformServices();
 
             if( services != null ) {
-                CDNSupport support = services.getCDNSupport();
+                final CDNSupport support = services.getCDNSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionDistribution(support, label, "Dasein CDN", origin);
+                        return testCDNs.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionDistribution(support, label, "Dasein CDN", origin);
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -297,7 +349,7 @@ public class PlatformResources {
     }
 
 
-    public @Nullable String getTestQueueId(@Nonnull String label, boolean provisionIfNull) {
+    public @Nullable String getTestQueueId(@Nonnull final String label, boolean provisionIfNull) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,String> entry : testQueues.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -319,11 +371,16 @@ public class PlatformResources {
             PlatformServices services = provider.getPlatformServices();
 
             if( services != null ) {
-                MQSupport mqSupport = services.getMessageQueueSupport();
+                final MQSupport mqSupport = services.getMessageQueueSupport();
 
                 if( mqSupport != null ) {
                     try {
-                        return provisionMQ(mqSupport, label, "dsnmq");
+                        return testQueues.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionMQ(mqSupport, label, "dsnmq");
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -334,7 +391,7 @@ public class PlatformResources {
         return null;
     }
 
-    public @Nullable String getTestRDBMSId(@Nonnull String label, boolean provisionIfNull, @Nullable DatabaseEngine engine) {
+    public @Nullable String getTestRDBMSId(@Nonnull final String label, boolean provisionIfNull, @Nullable final DatabaseEngine engine) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,String> entry : testRDBMS.entrySet() ) {
                 if( !entry.getKey().equals(DaseinTestManager.REMOVED) ) {
@@ -356,11 +413,16 @@ public class PlatformResources {
             PlatformServices services = provider.getPlatformServices();
 
             if( services != null ) {
-                RelationalDatabaseSupport rdbmsSupport = services.getRelationalDatabaseSupport();
+                final RelationalDatabaseSupport rdbmsSupport = services.getRelationalDatabaseSupport();
 
                 if( rdbmsSupport != null ) {
                     try {
-                        return provisionRDBMS(rdbmsSupport, label, "dsnrdbms", engine);
+                        return testRDBMS.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionRDBMS(rdbmsSupport, label, "dsnrdbms", engine);
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -371,7 +433,7 @@ public class PlatformResources {
         return null;
     }
 
-    public @Nullable String getTestTopicId(@Nonnull String label, boolean provisionIfNull) {
+    public @Nullable String getTestTopicId(@Nonnull final String label, boolean provisionIfNull) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,String> entry : testTopics.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -393,11 +455,16 @@ public class PlatformResources {
             PlatformServices services = provider.getPlatformServices();
 
             if( services != null ) {
-                PushNotificationSupport support = services.getPushNotificationSupport();
+                final PushNotificationSupport support = services.getPushNotificationSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionTopic(support, label, "dsntopic");
+                        return testTopics.provision(label, new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return provisionTopic(support, label, "dsntopic");
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -525,24 +592,14 @@ public class PlatformResources {
         }
         String id = support.create(origin, namePrefix + random.nextInt(10000),  true, "dsncdn" + random.nextInt(10000) + ".dasein.org");
 
-        synchronized( testCDNs ) {
-            while( testCDNs.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testCDNs.put(label, id);
-        }
+        testCDNs.register(label, id);
         return id;
     }
 
     public @Nonnull String provisionMQ(@Nonnull MQSupport support, @Nonnull String label, @Nonnull String namePrefix) throws CloudException, InternalException {
         MQCreateOptions options = MQCreateOptions.getInstance(namePrefix + (System.currentTimeMillis()%10000), "Test MQ auto-provisioned by Dasein Cloud integration tests");
         String id = support.createMessageQueue(options);
-        synchronized( testQueues ) {
-            while( testQueues.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testQueues.put(label, id);
-        }
+        testQueues.register(label, id);
         return id;
     }
 
@@ -555,6 +612,63 @@ public class PlatformResources {
         return password;
     }
 
+    /**
+     * Database products by engine, cheapest first and without bring-your-own-license products. A test run talks to a
+     * single cloud and region, so the catalog is fetched once per engine and shared by every test.
+     */
+    static private final ConcurrentHashMap<String,List<DatabaseProduct>> productCatalog = new ConcurrentHashMap<String, List<DatabaseProduct>>();
+
+    static private @Nonnull List<DatabaseProduct> getProducts(@Nonnull RelationalDatabaseSupport support, @Nonnull DatabaseEngine engine) throws CloudException, InternalException {
+        String key = support.getClass().getName() + ":" + engine.name();
+        List<DatabaseProduct> products = productCatalog.get(key);
+
+        if( products == null ) {
+            ArrayList<DatabaseProduct> list = new ArrayList<DatabaseProduct>();
+
+            for( DatabaseProduct product : support.listDatabaseProducts(engine) ) {
+                if( product.getLicenseModel() == DatabaseLicenseModel.BRING_YOUR_OWN_LICENSE) {
+                    // can't use in tests
+                    continue;
+                }
+                list.add(product);
+            }
+            Collections.sort(list, new Comparator<DatabaseProduct>() {
+                @Override
+                public int compare(DatabaseProduct p1, DatabaseProduct p2) {
+                    if( p1.getStandardHourlyRate() < p2.getStandardHourlyRate() ) {
+                        return -1;
+                    }
+                    return (p1.getStandardHourlyRate() > p2.getStandardHourlyRate() ? 1 : 0);
+                }
+            });
+            products = Collections.unmodifiableList(list);
+            productCatalog.putIfAbsent(key, products);
+        }
+        return products;
+    }
+
+    /**
+     * Loads the product catalog of every engine supported by the cloud in parallel so that later provisioning
+     * does not wait on product listings.
+     * @param support the RDBMS support of the cloud under test
+     */
+    public void prefetchDatabaseProducts(@Nonnull final RelationalDatabaseSupport support) {
+        try {
+            for( final DatabaseEngine engine : support.getDatabaseEngines() ) {
+                service.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        getProducts(support, engine);
+                        return true;
+                    }
+                });
+            }
+        }
+        catch( Throwable t ) {
+            logger.warn("Unable to prefetch database products: " + t.getMessage());
+        }
+    }
+
     public static @Nonnull DatabaseProduct getCheapestProduct(@Nonnull RelationalDatabaseSupport support, @Nullable DatabaseEngine engine, @Nullable DatabaseProduct afterThis) throws CloudException, InternalException {
         if( engine == null ) {
             for( DatabaseEngine e : support.getDatabaseEngines() ) {
@@ -568,7 +682,7 @@ public class PlatformResources {
             throw new InternalException("No engine was specified, and the cloud doesn't seem to support MySQL. Getting outta here.");
         }
 
-        DatabaseProduct product = getNextCheapestProduct(support.listDatabaseProducts(engine), afterThis );
+        DatabaseProduct product = getNextCheapestProduct(getProducts(support, engine), afterThis );
 
         if( product == null ) {
             throw new InternalException("Test database product is not found but is required");
@@ -577,44 +691,28 @@ public class PlatformResources {
         return product;
     }
 
-    private static @Nonnull DatabaseProduct getNextCheapestProduct(@Nonnull Iterable<DatabaseProduct> fromList, @Nullable DatabaseProduct afterThis) {
-        DatabaseProduct minimal = null;
+    private static @Nullable DatabaseProduct getNextCheapestProduct(@Nonnull List<DatabaseProduct> fromList, @Nullable DatabaseProduct afterThis) {
+        // the list is sorted by hourly rate, so the next cheapest is the first one that costs more
         for( DatabaseProduct product : fromList ) {
-            if( product.getLicenseModel() == DatabaseLicenseModel.BRING_YOUR_OWN_LICENSE) {
-                // can't use in tests
-                continue;
-            }
-            if( minimal == null ) {
-                if( afterThis == null ) {
-                    minimal = product;
-                }
-                else if( product.getStandardHourlyRate() > afterThis.getStandardHourlyRate() ) {
-                    minimal = product;
-                }
-            }
-            else {
-                if( afterThis == null ) {
-                    if( product.getStandardHourlyRate() < minimal.getStandardHourlyRate() ) {
-                        minimal = product;
-                    }
-                }
-                else if( product.getStandardHourlyRate() > afterThis.getStandardHourlyRate()
-                        && product.getStandardHourlyRate() < minimal.getStandardHourlyRate() ) {
-                    minimal = product;
-                }
+            if( afterThis == null || product.getStandardHourlyRate() > afterThis.getStandardHourlyRate() ) {
+                return product;
             }
         }
-        return minimal;
+        return null;
     }
 
     public @Nonnull String provisionRDBMS(@Nonnull RelationalDatabaseSupport support, @Nonnull String label, @Nonnull String namePrefix, @Nullable DatabaseEngine engine) throws CloudException, InternalException {
+        return provisionRDBMS(support, label, namePrefix, engine, false);
+    }
+
+    public @Nonnull String provisionRDBMS(@Nonnull RelationalDatabaseSupport support, @Nonnull String label, @Nonnull String namePrefix, @Nullable DatabaseEngine engine, boolean useName) throws CloudException, InternalException {
         String version = support.getDefaultVersion(engine);
 
         String id = null;
         DatabaseProduct databaseProduct = getCheapestProduct(support, engine, null);
         do {
             try {
-                id = support.createFromScratch(namePrefix + ( System.currentTimeMillis() % 10000 ), databaseProduct, version, "dasein", randomPassword(), 3000);
+                id = support.createFromScratch(useName ? namePrefix : (namePrefix + ( System.currentTimeMillis() % 10000 )), databaseProduct, version, "dasein", randomPassword(), 3000);
             } catch (CloudException e) {
                 if( CloudErrorType.CAPACITY.equals(e.getErrorType()) ) {
                     databaseProduct = getCheapestProduct(support, engine, databaseProduct);
@@ -629,24 +727,32 @@ public class PlatformResources {
             throw new GeneralCloudException("No database was generated", CloudErrorType.GENERAL);
         }
 
-        synchronized( testRDBMS ) {
-            while( testRDBMS.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testRDBMS.put(label, id);
-        }
+        testRDBMS.register(label, id);
         return id;
     }
 
+    /**
+     * Starts provisioning a database in the background. Databases take many minutes to create, so tests that need
+     * databases for several engines start them all at once and wait on the results.
+     * @return the future ID of the new database
+     */
+    public @Nonnull Future<String> provisionRDBMSInBackground(@Nonnull final RelationalDatabaseSupport support, @Nonnull final String label, @Nonnull final String namePrefix, @Nullable final DatabaseEngine engine, final boolean useName) {
+        Future<String> result = service.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return provisionRDBMS(support, label, namePrefix, engine, useName);
+            }
+        });
+
+        // close() waits on these so that no database is created after cleanup has collected the test databases
+        pendingDatabases.add(result);
+        return result;
+    }
+
     public @Nonnull String provisionTopic(@Nonnull PushNotificationSupport support, @Nonnull String label, @Nonnull String namePrefix) throws CloudException, InternalException {
         String id = support.createTopic(namePrefix + random.nextInt(10000)).getProviderTopicId();
 
-        synchronized( testTopics ) {
-            while( testTopics.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testTopics.put(label, id);
-        }
+        testTopics.register(label, id);
         return id;
     }
 
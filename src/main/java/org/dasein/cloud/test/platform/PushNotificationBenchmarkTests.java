@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.platform;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.DataFormat;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.platform.EndpointType;
+import org.dasein.cloud.platform.PlatformServices;
+import org.dasein.cloud.platform.PushNotificationSupport;
+import org.dasein.cloud.test.BenchmarkStats;
+import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.util.CalendarWrapper;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures push notification publish throughput and publish-to-delivery latency by subscribing a
+ * {@link NotificationReceiver} running inside the test JVM to a fresh topic and publishing to it from several threads.
+ * The cloud must be able to reach the receiver: dasein.benchmark.notifications.host names the host the cloud should
+ * deliver to (the local host name by default) and dasein.benchmark.notifications.port the port to listen on.
+ * Publishing starts once the subscription is confirmed, or after dasein.benchmark.notifications.confirm seconds (60).
+ * Sizes are set with dasein.benchmark.notifications.messages and dasein.benchmark.threads.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class PushNotificationBenchmarkTests {
+    static private DaseinTestManager tm;
+
+    @BeforeClass
+    static public void configure() {
+        tm = new DaseinTestManager(PushNotificationBenchmarkTests.class);
+    }
+
+    @AfterClass
+    static public void cleanUp() {
+        if( tm != null ) {
+            tm.close();
+        }
+    }
+
+    @Rule
+    public final TestName name = new TestName();
+
+    private String testTopicId;
+
+    public PushNotificationBenchmarkTests() { }
+
+    @Before
+    public void before() {
+        tm.begin(name.getMethodName());
+        assumeTrue(!tm.isTestSkipped());
+
+        PlatformResources resources = DaseinTestManager.getPlatformResources();
+        PlatformServices services = tm.getProvider().getPlatformServices();
+
+        if( resources != null && services != null ) {
+            PushNotificationSupport support = services.getPushNotificationSupport();
+
+            if( support != null ) {
+                try {
+                    // a topic of its own so that no other subscriber slows down or pollutes the deliveries
+                    testTopicId = resources.provisionTopic(support, "benchmark", "dsntopicb");
+                }
+                catch( Throwable ignore ) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        testTopicId = null;
+        tm.end();
+    }
+
+    private @Nullable PushNotificationSupport getSupport() throws CloudException, InternalException {
+        PlatformServices services = tm.getProvider().getPlatformServices();
+
+        if( services == null ) {
+            tm.ok("Platform services are not supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return null;
+        }
+        PushNotificationSupport support = services.getPushNotificationSupport();
+
+        if( support == null ) {
+            tm.ok("Push notifications are not supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return null;
+        }
+        if( testTopicId == null ) {
+            if( !support.isSubscribed() ) {
+                tm.ok("Not subscribed to push notifications support so this test is invalid");
+            }
+            else {
+                fail("No test topic was created for the test " + name.getMethodName());
+            }
+            return null;
+        }
+        return support;
+    }
+
+    /**
+     * Publishes messages to a topic from several threads and waits for each of them to arrive at the in-JVM
+     * receiver, reporting publish throughput and delivery latency percentiles.
+     * @throws CloudException an error occurred with the cloud provider subscribing or publishing
+     * @throws InternalException an error occurred within Dasein Cloud subscribing or publishing
+     * @throws InterruptedException the test was interrupted waiting on publishers or deliveries
+     * @throws IOException the in-JVM receiver could not be started
+     */
+    @Test
+    public void publishFanOut() throws CloudException, InternalException, InterruptedException, IOException {
+        final PushNotificationSupport support = getSupport();
+
+        if( support == null ) {
+            return;
+        }
+        final int messageCount = DaseinTestManager.getIntSystemProperty("dasein.benchmark.notifications.messages", 500);
+        int threads = DaseinTestManager.getIntSystemProperty("dasein.benchmark.threads", 10);
+        int port = DaseinTestManager.getIntSystemProperty("dasein.benchmark.notifications.port", 0);
+        int confirmation = DaseinTestManager.getIntSystemProperty("dasein.benchmark.notifications.confirm", 60);
+        String host = DaseinTestManager.getSystemProperty("dasein.benchmark.notifications.host");
+
+        if( host == null ) {
+            host = InetAddress.getLocalHost().getCanonicalHostName();
+        }
+        final BenchmarkStats publishes = new BenchmarkStats("Publish");
+        BenchmarkStats deliveries = new BenchmarkStats("Delivery");
+        final NotificationReceiver receiver = new NotificationReceiver(port, UUID.randomUUID().toString(), deliveries);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try {
+            String endpoint = "http://" + host + ":" + receiver.getPort() + "/";
+
+            tm.out("Receiver", endpoint);
+            support.subscribe(testTopicId, EndpointType.HTTP, DataFormat.PLAINTEXT, endpoint);
+            // the subscription is confirmed on a receiver thread, and messages published before then may be dropped
+            if( !receiver.awaitConfirmation(confirmation * 1000L) ) {
+                tm.warn("No subscription confirmation arrived within " + confirmation + " seconds, publishing anyway");
+            }
+
+            final AtomicInteger next = new AtomicInteger();
+            ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+
+            deliveries.start();
+            publishes.start();
+            for( int i=0; i<threads; i++ ) {
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        int sequence;
+
+                        while( (sequence = next.getAndIncrement()) < messageCount ) {
+                            long start = System.nanoTime();
+
+                            try {
+                                support.publish(testTopicId, "Dasein Benchmark " + sequence, receiver.toMessage(sequence));
+                                publishes.record(start);
+                            }
+                            catch( CloudException | InternalException e ) {
+                                publishes.fail();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> result : results ) {
+                try {
+                    result.get();
+                }
+                catch( ExecutionException e ) {
+                    tm.warn("Publisher failed: " + e.getCause().getMessage());
+                }
+            }
+            publishes.stop();
+            boolean complete = receiver.awaitDeliveries(publishes.getCount(), CalendarWrapper.MINUTE * 5L);
+
+            deliveries.stop();
+            tm.out("Threads", threads);
+            publishes.report(tm);
+            deliveries.report(tm);
+            if( receiver.getDeliveredCount() < 1 ) {
+                tm.warn("Nothing was delivered to " + endpoint + "; the receiver may not be reachable from " + tm.getProvider().getCloudName() + " (set dasein.benchmark.notifications.host/port)");
+                return;
+            }
+            if( !complete ) {
+                tm.warn("Timed out waiting for deliveries");
+            }
+            assertEquals("Not every published message was delivered", publishes.getCount(), receiver.getDeliveredCount());
+        }
+        finally {
+            pool.shutdownNow();
+            receiver.close();
+        }
+    }
+}
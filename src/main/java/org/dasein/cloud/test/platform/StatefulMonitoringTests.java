@@ -25,12 +25,26 @@ import org.dasein.cloud.CloudProvider;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.OperationNotSupportedException;
 import org.dasein.cloud.platform.*;
+import org.dasein.cloud.test.BenchmarkStats;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.storage.ListingMonitor;
 import org.junit.*;
 import org.junit.rules.TestName;
 
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeTrue;
@@ -140,10 +154,11 @@ public class StatefulMonitoringTests {
             return;
         }
         try {
-            Iterable<Metric> metrics = support.listMetrics(MetricFilterOptions.getInstance());
-            assertTrue("No metrics available to work with.", metrics.iterator().hasNext());
+            // a single iterator so that large accounts are not listed twice just to find one metric
+            Iterator<Metric> metrics = support.listMetrics(MetricFilterOptions.getInstance()).iterator();
+            assertTrue("No metrics available to work with.", metrics.hasNext());
 
-            Metric firstMetric = metrics.iterator().next();
+            Metric firstMetric = metrics.next();
             availableMetricName = firstMetric.getName();
             availableMetricNamespace = firstMetric.getNamespace();
         }
@@ -192,6 +207,102 @@ public class StatefulMonitoringTests {
         }
     }
 
+    /**
+     * Compares an unfiltered metric listing with namespace- and name-filtered listings, streaming each one with
+     * bounded memory. A filtered listing that takes about as long as the unfiltered one suggests the provider
+     * filters on the client side.
+     * Requires {@link #setAvailableMetricProperties()} to be run first.
+     *
+     * @throws CloudException an error occurred in the cloud provider
+     * @throws InternalException an error occurred within the Dasein Cloud API implementation
+     */
+    @Test
+    public void testListMetricsFilterBenchmark() throws CloudException, InternalException {
+        if( !DaseinTestManager.isBenchmarkEnabled() ) {
+            tm.ok("Benchmark mode is not enabled (dasein.benchmark=true), skipping the metric filter comparison");
+            return;
+        }
+        MonitoringSupport support = getSupport();
+        if( support == null ) {
+            tm.ok("No MonitoringSupport in this cloud");
+            return;
+        }
+        if( availableMetricName == null ) {
+            fail("No metrics available to work with.");
+        }
+        final AtomicInteger inNamespace = new AtomicInteger();
+        final AtomicInteger withName = new AtomicInteger();
+
+        // the unfiltered listing also counts what the filtered listings should return, without keeping any metrics
+        ListingMonitor<Metric> unfiltered = checkMetrics("Unfiltered", support, MetricFilterOptions.getInstance(), new ListingMonitor.Visitor<Metric>() {
+            @Override
+            public void visit(@Nonnull Metric metric, int index) {
+                boolean namespaceMatch = (availableMetricNamespace == null || availableMetricNamespace.equals(metric.getNamespace()));
+
+                if( namespaceMatch ) {
+                    inNamespace.incrementAndGet();
+                    if( availableMetricName.equals(metric.getName()) ) {
+                        withName.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        if( availableMetricNamespace != null ) {
+            ListingMonitor<Metric> byNamespace = checkMetrics("Namespace", support, MetricFilterOptions.getInstance().withMetricNamespace(availableMetricNamespace), new ListingMonitor.Visitor<Metric>() {
+                @Override
+                public void visit(@Nonnull Metric metric, int index) {
+                    assertEquals(availableMetricNamespace, metric.getNamespace());
+                }
+            });
+
+            checkPushdown("Namespace", unfiltered, byNamespace, inNamespace.get());
+        }
+        ListingMonitor<Metric> byName = checkMetrics("Name", support, MetricFilterOptions.getInstance().withMetricNamespace(availableMetricNamespace).withMetricName(availableMetricName), new ListingMonitor.Visitor<Metric>() {
+            @Override
+            public void visit(@Nonnull Metric metric, int index) {
+                if( availableMetricNamespace != null ) {
+                    assertEquals(availableMetricNamespace, metric.getNamespace());
+                }
+                assertEquals(availableMetricName, metric.getName());
+            }
+        });
+
+        checkPushdown("Name", unfiltered, byName, withName.get());
+    }
+
+    private @Nonnull ListingMonitor<Metric> checkMetrics(@Nonnull String label, @Nonnull MonitoringSupport support, @Nonnull MetricFilterOptions options, @Nonnull final ListingMonitor.Visitor<Metric> visitor) throws CloudException, InternalException {
+        ListingMonitor<Metric> monitor = new ListingMonitor<Metric>(label);
+
+        monitor.start();
+        Iterable<Metric> metrics = support.listMetrics(options);
+
+        assertNotNull(metrics);
+        monitor.walk(metrics, new ListingMonitor.Visitor<Metric>() {
+            @Override
+            public void visit(@Nonnull Metric metric, int index) throws CloudException, InternalException {
+                assertMetric(metric);
+                visitor.visit(metric, index);
+            }
+        });
+        monitor.report(tm);
+        monitor.assertWithinBudget();
+        return monitor;
+    }
+
+    private void checkPushdown(@Nonnull String label, @Nonnull ListingMonitor<Metric> unfiltered, @Nonnull ListingMonitor<Metric> filtered, int expected) {
+        double speedup = (filtered.getElapsedMillis() <= 0L ? 0.0 : ((double)unfiltered.getElapsedMillis())/filtered.getElapsedMillis());
+
+        tm.out(label + " Speedup vs Unfiltered", String.format("%.2fx", speedup));
+        if( filtered.getCount() != expected ) {
+            // metrics come and go between calls, so a mismatch is worth noting but not failing
+            tm.warn(label + " listing returned " + filtered.getCount() + " metrics, the unfiltered listing had " + expected + " matches");
+        }
+        if( unfiltered.getCount() >= ListingMonitor.MIN_ENTRIES_FOR_LAZINESS && filtered.getCount() * 10 < unfiltered.getCount() && filtered.getElapsedMillis() * 2 > unfiltered.getElapsedMillis() ) {
+            tm.warn(label + " listing took " + filtered.getElapsedMillis() + "ms against " + unfiltered.getElapsedMillis() + "ms unfiltered, the provider appears to filter on the client side");
+        }
+    }
+
     @Test
     public void testListMetricsWithBadFilter() throws CloudException, InternalException {
         MonitoringSupport support = getSupport();
@@ -337,6 +448,128 @@ public class StatefulMonitoringTests {
         }
     }
 
+    /**
+     * Adds alarms concurrently, toggles their actions in batches through the array-accepting calls, and removes
+     * them in a single call, reporting throughput and latency for each kind of operation. The number of alarms is
+     * set with dasein.benchmark.monitoring.alarms and the batch size with dasein.benchmark.monitoring.batch.
+     * Requires {@link #setAvailableMetricProperties()} to be run first.
+     *
+     * @throws CloudException an error occurred in the cloud provider
+     * @throws InternalException an error occurred within the Dasein Cloud API implementation
+     * @throws InterruptedException the test was interrupted waiting on alarm creation
+     */
+    @Test
+    public void testBulkAlarmLifecycleBenchmark() throws CloudException, InternalException, InterruptedException {
+        if( !DaseinTestManager.isBenchmarkEnabled() ) {
+            tm.ok("Benchmark mode is not enabled (dasein.benchmark=true), skipping the bulk alarm lifecycle");
+            return;
+        }
+        final MonitoringSupport support = getSupport();
+        if( support == null ) {
+            tm.ok("No MonitoringSupport in this cloud");
+            return;
+        }
+        if( availableMetricName == null ) {
+            fail("No metrics available to work with.");
+        }
+        int count = DaseinTestManager.getIntSystemProperty("dasein.benchmark.monitoring.alarms", 100);
+        int batchSize = DaseinTestManager.getIntSystemProperty("dasein.benchmark.monitoring.batch", 50);
+        int threads = DaseinTestManager.getIntSystemProperty("dasein.benchmark.threads", 10);
+        String prefix = DASEIN_PREFIX + "bulk-" + getRandomId() + "-";
+        final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+        final BenchmarkStats adds = new BenchmarkStats("Add");
+        BenchmarkStats enables = new BenchmarkStats("Enable");
+        BenchmarkStats disables = new BenchmarkStats("Disable");
+        BenchmarkStats removes = new BenchmarkStats("Remove");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try {
+            ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+
+            adds.start();
+            for( int i=0; i<count; i++ ) {
+                final String alarmName = prefix + i;
+
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long start = System.nanoTime();
+
+                        try {
+                            support.updateAlarm(AlarmUpdateOptions.getInstance(alarmName, availableMetricNamespace, availableMetricName, "SampleCount", "GreaterThanOrEqualToThreshold", 0.0, 60, 1));
+                            created.add(alarmName);
+                            adds.record(start);
+                        }
+                        catch( CloudException | InternalException e ) {
+                            adds.fail();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> result : results ) {
+                try {
+                    result.get();
+                }
+                catch( ExecutionException e ) {
+                    tm.warn("Failed to add alarm: " + e.getCause().getMessage());
+                }
+            }
+            adds.stop();
+            adds.report(tm);
+            assertEquals("Not every alarm was added", count, created.size());
+
+            String[] names = created.toArray(new String[created.size()]);
+
+            toggleInBatches(support, names, batchSize, true, enables);
+            toggleInBatches(support, names, batchSize, false, disables);
+
+            removes.start();
+            long start = System.nanoTime();
+
+            support.removeAlarms(names);
+            removes.record(start);
+            removes.stop();
+            created.clear();
+            removes.report(tm);
+            tm.out("Batch Size", batchSize);
+            tm.out("Remove Alarms/sec", String.format("%.2f", removes.getElapsedMillis() <= 0L ? 0.0 : (names.length * 1000.0)/removes.getElapsedMillis()));
+        }
+        catch( OperationNotSupportedException expected ) {
+            tm.ok("OperationNotSupportedException thrown.");
+        }
+        finally {
+            pool.shutdownNow();
+            if( !created.isEmpty() ) {
+                try {
+                    support.removeAlarms(created.toArray(new String[created.size()]));
+                }
+                catch( Throwable ex ) {
+                    logger.warn(ex);
+                }
+            }
+        }
+    }
+
+    private void toggleInBatches(@Nonnull MonitoringSupport support, @Nonnull String[] names, int batchSize, boolean enable, @Nonnull BenchmarkStats stats) throws CloudException, InternalException {
+        stats.start();
+        for( int i=0; i<names.length; i += batchSize ) {
+            String[] batch = Arrays.copyOfRange(names, i, Math.min(i + batchSize, names.length));
+            long start = System.nanoTime();
+
+            if( enable ) {
+                support.enableAlarmActions(batch);
+            }
+            else {
+                support.disableAlarmActions(batch);
+            }
+            stats.record(start);
+        }
+        stats.stop();
+        stats.report(tm);
+        tm.out(stats.getName() + " Alarms/sec", String.format("%.2f", stats.getElapsedMillis() <= 0L ? 0.0 : (names.length * 1000.0)/stats.getElapsedMillis()));
+    }
+
     private long getRandomId() {
         return System.currentTimeMillis() % 10000;
     }
@@ -24,8 +24,10 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.DayOfWeek;
+import org.dasein.cloud.GeneralCloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.Requirement;
 import org.dasein.cloud.TimeWindow;
@@ -56,9 +58,13 @@ import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
@@ -78,6 +84,20 @@ public class StatefulRDBMSTests {
     @BeforeClass
     static public void configure() {
         tm = new DaseinTestManager(StatefulRDBMSTests.class);
+
+        String suite = StatefulRDBMSTests.class.getSimpleName();
+
+        // every engine the included tests need is started up front so that the engines provision concurrently;
+        // Oracle goes first since checking for the MySQL database waits on any prefetch of it
+        if( !DaseinTestManager.isTestSkipped(suite, "createOracleDatabase") ) {
+            provisionDatabase(DatabaseEngine.ORACLE_SE1);
+        }
+        for( String test : MYSQL_TESTS ) {
+            if( !DaseinTestManager.isTestSkipped(suite, test) ) {
+                provisionDatabase(DatabaseEngine.MYSQL);
+                break;
+            }
+        }
     }
 
     @AfterClass
@@ -87,6 +107,75 @@ public class StatefulRDBMSTests {
         }
     }
 
+    static private final String[] MYSQL_TESTS = { "listAccess", "alterDatabase", "checkAccess" };
+
+    /**
+     * Databases the suite needs, one per engine, all provisioned in the background before the first test runs.
+     */
+    static private final HashMap<DatabaseEngine,Future<String>> pendingDatabases = new HashMap<DatabaseEngine, Future<String>>();
+
+    static private String oracleName;
+
+    static private synchronized void provisionDatabase(@Nonnull DatabaseEngine engine) {
+        if( pendingDatabases.containsKey(engine) ) {
+            return;
+        }
+        PlatformServices services = tm.getProvider().getPlatformServices();
+        PlatformResources p = DaseinTestManager.getPlatformResources();
+
+        if( services == null || p == null ) {
+            return;
+        }
+        RelationalDatabaseSupport support = services.getRelationalDatabaseSupport();
+
+        if( support == null ) {
+            return;
+        }
+        if( pendingDatabases.isEmpty() ) {
+            p.prefetchDatabaseProducts(support);
+        }
+        if( DatabaseEngine.MYSQL.equals(engine) ) {
+            if( tm.getTestRDBMSId(DaseinTestManager.STATEFUL, false, DatabaseEngine.MYSQL) == null ) {
+                pendingDatabases.put(engine, p.provisionRDBMSInBackground(support, DaseinTestManager.STATEFUL, "dsnrdbms", engine, false));
+            }
+            return;
+        }
+        // anything but the shared MySQL database is paid for, so it is only started when the test that uses it will run
+        try {
+            for( DatabaseEngine e : support.getDatabaseEngines() ) {
+                if( e == engine ) {
+                    oracleName = "dsnora" + ( System.currentTimeMillis() % 10000 );
+                    pendingDatabases.put(engine, p.provisionRDBMSInBackground(support, "oracle", oracleName, engine, true));
+                    break;
+                }
+            }
+        }
+        catch( Throwable ignore ) {
+            // ignore
+        }
+    }
+
+    static private @Nullable String awaitDatabase(@Nonnull DatabaseEngine engine) {
+        Future<String> result;
+
+        synchronized( StatefulRDBMSTests.class ) {
+            result = pendingDatabases.get(engine);
+        }
+        if( result == null ) {
+            return null;
+        }
+        try {
+            return result.get();
+        }
+        catch( ExecutionException e ) {
+            tm.warn("Background provisioning of a " + engine + " database failed: " + e.getCause().getMessage());
+        }
+        catch( InterruptedException ignore ) {
+            // ignore
+        }
+        return null;
+    }
+
     @Rule
     public final TestName name = new TestName();
 
@@ -98,9 +187,8 @@ public class StatefulRDBMSTests {
     public void before() {
         tm.begin(name.getMethodName());
         assumeTrue(!tm.isTestSkipped());
-        if ( name.getMethodName().equals("listAccess") ||
-                name.getMethodName().equals("alterDatabase") ||
-                name.getMethodName().equals("checkAccess")) {
+        if( Arrays.asList(MYSQL_TESTS).contains(name.getMethodName()) ) {
+            awaitDatabase(DatabaseEngine.MYSQL);
             testDatabaseId = tm.getTestRDBMSId(DaseinTestManager.STATEFUL, true, DatabaseEngine.MYSQL);
         }
     }
@@ -541,9 +629,26 @@ public class StatefulRDBMSTests {
 
         if( p != null ) {
             Iterable<DatabaseEngine> engines = support.getDatabaseEngines();
+            HashMap<DatabaseEngine,Future<String>> results = new HashMap<DatabaseEngine, Future<String>>();
+
+            p.prefetchDatabaseProducts(support);
+            // names are suffixed per engine since databases started in the same millisecond would otherwise collide
             for (DatabaseEngine dbEngine : engines) {
-                tm.out("testing " + dbEngine.name());
-                String id = p.provisionRDBMS(support, "provisionRdbms", "dsnrdbms", dbEngine);
+                results.put(dbEngine, p.provisionRDBMSInBackground(support, "provisionRdbms", "dsnrdbms" + dbEngine.ordinal() + "x", dbEngine, false));
+            }
+            for (Map.Entry<DatabaseEngine,Future<String>> entry : results.entrySet()) {
+                tm.out("testing " + entry.getKey().name());
+                String id;
+
+                try {
+                    id = entry.getValue().get();
+                }
+                catch( ExecutionException e ) {
+                    throw new GeneralCloudException("Provisioning a " + entry.getKey() + " database failed: " + e.getCause().getMessage(), CloudErrorType.GENERAL);
+                }
+                catch( InterruptedException e ) {
+                    throw new InternalException("Interrupted waiting on a " + entry.getKey() + " database");
+                }
 
                     // this should be updated to exercise all available versions of all available databases.  perhaps even for all available products...
 
@@ -591,9 +696,14 @@ public class StatefulRDBMSTests {
             tm.ok("Oracle doesn't seem to be supported by " + tm.getContext().getRegionId() + " in " + tm.getProvider().getCloudName());
             return;
         }
-        String dbName = "dsnora" + ( System.currentTimeMillis() % 10000 );
+        String id = awaitDatabase(oracleEngine);
+        String dbName = oracleName;
+
+        if( id == null ) {
+            dbName = "dsnora" + ( System.currentTimeMillis() % 10000 );
+            id = support.createFromScratch(dbName, PlatformResources.getCheapestProduct(support, oracleEngine, null), null, "dasein", PlatformResources.randomPassword(), 3000);
+        }
         String expectedDbName = dbName.toUpperCase().substring(0, 8);
-        String id = support.createFromScratch(dbName, PlatformResources.getCheapestProduct(support, oracleEngine, null), null, "dasein", PlatformResources.randomPassword(), 3000);
         Database database = support.getDatabase(id);
         removeDatabase(id);
         Assert.assertNotNull("Oracle database has not been created", database);
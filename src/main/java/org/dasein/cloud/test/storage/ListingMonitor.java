@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.test.DaseinTestManager;
+
+import javax.annotation.Nonnull;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walks a listing as a stream, handing each entry to a visitor without keeping it, while measuring the time to
+ * the first entry, the number of entries, and heap growth. Heap growth is measured as retained heap, the usage
+ * left after garbage collection, so short-lived garbage from a lazy listing does not count against it. A provider
+ * that materializes a huge listing up front shows up as a late first entry and heap growth beyond the budget set
+ * with dasein.storage.listing.heapmb (128 by default).
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class ListingMonitor<T> {
+    /**
+     * Receives each entry of a listing as it is read.
+     * @param <T> the type of entry in the listing
+     */
+    public interface Visitor<T> {
+        public void visit(@Nonnull T item, int index) throws CloudException, InternalException;
+    }
+
+    /**
+     * Listings with fewer entries than this are too small for the laziness check to mean anything.
+     */
+    static public final int MIN_ENTRIES_FOR_LAZINESS = 1000;
+
+    static private final int SAMPLE_INTERVAL = 500;
+
+    private final String name;
+
+    private long baselineHeap;
+    private int  count;
+    private long firstNanos = -1L;
+    private long peakHeap;
+    private long startNanos;
+    private long stopNanos;
+
+    public ListingMonitor(@Nonnull String name) {
+        this.name = name;
+    }
+
+    /**
+     * Marks the start of the listing. Call this before asking the provider for the listing so that any work
+     * done up front is counted against the time to the first entry and the heap budget.
+     */
+    public void start() {
+        System.gc();
+        baselineHeap = getRetainedHeap();
+        peakHeap = baselineHeap;
+        count = 0;
+        firstNanos = -1L;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Streams the listing through the visitor.
+     * @param items the listing returned by the provider
+     * @param visitor the visitor that validates each entry
+     * @throws CloudException an error occurred with the cloud provider while iterating
+     * @throws InternalException an error occurred within Dasein Cloud while iterating
+     */
+    public void walk(@Nonnull Iterable<T> items, @Nonnull Visitor<T> visitor) throws CloudException, InternalException {
+        for( T item : items ) {
+            if( firstNanos < 0L ) {
+                firstNanos = System.nanoTime() - startNanos;
+            }
+            visitor.visit(item, count++);
+            if( count % SAMPLE_INTERVAL == 0 ) {
+                peakHeap = Math.max(peakHeap, getRetainedHeap());
+            }
+        }
+        stopNanos = System.nanoTime();
+        System.gc();
+        peakHeap = Math.max(peakHeap, getRetainedHeap());
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getElapsedMillis() {
+        return (stopNanos - startNanos)/1000000L;
+    }
+
+    public long getHeapGrowth() {
+        return peakHeap - baselineHeap;
+    }
+
+    /**
+     * @return the milliseconds from {@link #start()} to the first entry, or -1 if the listing was empty
+     */
+    public long getTimeToFirstMillis() {
+        return (firstNanos < 0L ? -1L : firstNanos/1000000L);
+    }
+
+    /**
+     * Writes the listing measurements to the test log and warns when the first entry only arrived after nearly
+     * the whole listing had been read.
+     * @param tm the test manager for the running test
+     */
+    public void report(@Nonnull DaseinTestManager tm) {
+        tm.out(name + " Entries", count);
+        tm.out(name + " Time to First (ms)", getTimeToFirstMillis());
+        tm.out(name + " Duration (ms)", getElapsedMillis());
+        tm.out(name + " Heap Growth (KB)", getHeapGrowth()/1024L);
+        if( count >= MIN_ENTRIES_FOR_LAZINESS && firstNanos > (stopNanos - startNanos) * 0.9 ) {
+            tm.warn(name + " listing returned its first entry after " + getTimeToFirstMillis() + "ms of " + getElapsedMillis() + "ms, it does not appear to be lazy");
+        }
+    }
+
+    /**
+     * Fails the running test if heap growth while listing exceeded the memory budget.
+     */
+    public void assertWithinBudget() {
+        long budget = DaseinTestManager.getIntSystemProperty("dasein.storage.listing.heapmb", 128) * 1024L * 1024L;
+
+        assertTrue(name + " listing of " + count + " entries grew the heap by " + getHeapGrowth()/1024L + "KB, beyond the budget of " + budget/1024L + "KB", getHeapGrowth() <= budget);
+    }
+
+    /**
+     * @return the heap in use after the most recent garbage collection, or the heap currently in use if the JVM does
+     * not report usage after collection
+     */
+    private long getRetainedHeap() {
+        long used = 0L;
+        boolean reported = false;
+
+        for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+            if( MemoryType.HEAP.equals(pool.getType()) ) {
+                MemoryUsage usage = pool.getCollectionUsage();
+
+                if( usage != null ) {
+                    used += usage.getUsed();
+                    reported = true;
+                }
+            }
+        }
+        if( !reported ) {
+            Runtime runtime = Runtime.getRuntime();
+
+            used = runtime.totalMemory() - runtime.freeMemory();
+        }
+        return used;
+    }
+}
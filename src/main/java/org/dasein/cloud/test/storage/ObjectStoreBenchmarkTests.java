@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.storage;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.GeneralCloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.storage.Blob;
+import org.dasein.cloud.storage.BlobStoreSupport;
+import org.dasein.cloud.storage.FileTransfer;
+import org.dasein.cloud.storage.StorageServices;
+import org.dasein.cloud.test.BenchmarkStats;
+import org.dasein.cloud.test.DaseinTestManager;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures large object throughput through {@link BlobStoreSupport#upload(File, String, String)} and
+ * {@link BlobStoreSupport#download(String, String, File)}, verifying every download against the checksum of the
+ * uploaded payload, and the fan-out of many small objects into one bucket followed by a full listing. Transfers
+ * larger than dasein.benchmark.storage.maxmb (1024 by default) are skipped; the fan-out size is set with
+ * dasein.benchmark.storage.objects and the number of worker threads with dasein.benchmark.threads.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class ObjectStoreBenchmarkTests {
+    static private final long MB = 1024L * 1024L;
+
+    static private DaseinTestManager tm;
+
+    @BeforeClass
+    static public void configure() {
+        tm = new DaseinTestManager(ObjectStoreBenchmarkTests.class);
+    }
+
+    @AfterClass
+    static public void cleanUp() {
+        if( tm != null ) {
+            tm.close();
+        }
+    }
+
+    @Rule
+    public final TestName name = new TestName();
+
+    private Blob testBucket;
+
+    public ObjectStoreBenchmarkTests() { }
+
+    @Before
+    public void before() {
+        tm.begin(name.getMethodName());
+        assumeTrue(!tm.isTestSkipped());
+        testBucket = tm.getTestBucket(DaseinTestManager.STATEFUL, true, true);
+    }
+
+    @After
+    public void after() {
+        try {
+            testBucket = null;
+        }
+        finally {
+            tm.end();
+        }
+    }
+
+    private void checkTransfer(long megabytes) throws CloudException, InternalException, IOException {
+        StorageServices services = tm.getProvider().getStorageServices();
+
+        if( services == null ) {
+            tm.ok("No storage services are supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return;
+        }
+        BlobStoreSupport support = services.getBlobStoreSupport();
+
+        if( support == null ) {
+            tm.ok("No object storage is supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return;
+        }
+        int max = DaseinTestManager.getIntSystemProperty("dasein.benchmark.storage.maxmb", 1024);
+
+        if( megabytes > max ) {
+            tm.ok("Transfers of " + megabytes + "MB exceed dasein.benchmark.storage.maxmb=" + max + ", skipping");
+            return;
+        }
+        if( testBucket == null ) {
+            if( !support.isSubscribed() ) {
+                tm.ok("Not subscribed to object storage so this test is not valid");
+            }
+            else {
+                fail("No test bucket exists for the test " + name.getMethodName());
+            }
+            return;
+        }
+        StorageResources resources = DaseinTestManager.getStorageResources();
+
+        if( resources == null ) {
+            fail("Failed to initialize storage resources for all tests");
+        }
+        TestPayload payload = TestPayload.getInstance(megabytes * MB, megabytes);
+
+        // generate the payload up front so that only the transfer is timed
+        tm.out("Payload MD5", payload.getMd5());
+
+        long start = System.nanoTime();
+        //noinspection ConstantConditions
+        Blob blob = resources.provisionChildObject(support, "benchmark", testBucket.getBucketName(), "dsnbig", payload);
+        long uploadNanos = System.nanoTime() - start;
+
+        assertNotNull("Upload returned a null object", blob);
+        tm.out("Upload (ms)", uploadNanos/1000000L);
+        tm.out("Upload MB/s", String.format("%.2f", toMegabytesPerSecond(megabytes, uploadNanos)));
+
+        File targetFile = File.createTempFile("dsndl", ".dl");
+
+        try {
+            start = System.nanoTime();
+            //noinspection ConstantConditions
+            FileTransfer task = support.download(blob.getBucketName(), blob.getObjectName(), targetFile);
+
+            while( !task.isComplete() ) {
+                try { Thread.sleep(100L); }
+                catch( InterruptedException ignore ) { }
+            }
+            long downloadNanos = System.nanoTime() - start;
+
+            //noinspection ThrowableResultOfMethodCallIgnored
+            if( task.getTransferError() != null ) {
+                throw new GeneralCloudException("Download of " + blob.getObjectName() + " had an error.", task.getTransferError(), CloudErrorType.GENERAL);
+            }
+            tm.out("Download (ms)", downloadNanos/1000000L);
+            tm.out("Download MB/s", String.format("%.2f", toMegabytesPerSecond(megabytes, downloadNanos)));
+            tm.out("Downloaded", targetFile.length() + " bytes");
+            assertTrue("The downloaded object does not match the checksum of the uploaded payload", payload.matches(targetFile));
+        }
+        finally {
+            if( targetFile.exists() ) {
+                //noinspection ResultOfMethodCallIgnored
+                targetFile.delete();
+            }
+        }
+    }
+
+    private double toMegabytesPerSecond(long megabytes, long nanos) {
+        if( nanos <= 0L ) {
+            return 0.0;
+        }
+        return (megabytes * 1000000000.0)/nanos;
+    }
+
+    private void await(@Nonnull ArrayList<Future<Void>> results, @Nonnull String action) throws InterruptedException {
+        for( Future<Void> result : results ) {
+            try {
+                result.get();
+            }
+            catch( ExecutionException e ) {
+                tm.warn("Failed to " + action + " object: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Uploads many small objects into a fresh bucket from a thread pool and then times a full walk of the bucket
+     * listing, reporting time to the first item, items per second, and heap growth during the walk.
+     * @throws CloudException an error occurred with the cloud provider uploading or listing objects
+     * @throws InternalException an error occurred within Dasein Cloud uploading or listing objects
+     * @throws InterruptedException the test was interrupted waiting on uploads or removals
+     */
+    @Test
+    public void listManySmallObjects() throws CloudException, InternalException, InterruptedException {
+        StorageServices services = tm.getProvider().getStorageServices();
+
+        if( services == null ) {
+            tm.ok("No storage services are supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return;
+        }
+        final BlobStoreSupport support = services.getBlobStoreSupport();
+
+        if( support == null ) {
+            tm.ok("No object storage is supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
+            return;
+        }
+        if( !support.isSubscribed() ) {
+            tm.ok("Not subscribed to object storage so this test is not valid");
+            return;
+        }
+        StorageResources resources = DaseinTestManager.getStorageResources();
+
+        if( resources == null ) {
+            fail("Failed to initialize storage resources for all tests");
+        }
+        int objects = DaseinTestManager.getIntSystemProperty("dasein.benchmark.storage.objects", 1000);
+        int threads = DaseinTestManager.getIntSystemProperty("dasein.benchmark.threads", 10);
+        // a bucket of its own so that the listing holds exactly the objects uploaded here
+        //noinspection ConstantConditions
+        final String bucket = resources.provisionRootBucket(support, "fanout", "dsnfan", false, true).getBucketName();
+
+        assertNotNull("The fan-out bucket has no name", bucket);
+
+        final File file = TestPayload.getInstance("Dasein Cloud fan-out").getFile();
+        final BenchmarkStats uploads = new BenchmarkStats("Upload");
+        final BenchmarkStats removals = new BenchmarkStats("Remove");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+        final Set<String> uploaded = Collections.synchronizedSet(new HashSet<String>());
+
+        try {
+            uploads.start();
+            for( int i=0; i<objects; i++ ) {
+                final String objectName = "dsnsmall" + i + ".txt";
+
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long start = System.nanoTime();
+
+                        try {
+                            support.upload(file, bucket, objectName);
+                            uploads.record(start);
+                            uploaded.add(objectName);
+                        }
+                        catch( CloudException | InternalException e ) {
+                            uploads.fail();
+                            throw e;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            await(results, "upload");
+            uploads.stop();
+            tm.out("Threads", threads);
+            uploads.report(tm);
+
+            // names are only checked against the uploads, not kept, so heap growth reflects the listing alone
+            final AtomicInteger listed = new AtomicInteger();
+            ListingMonitor<Blob> monitor = new ListingMonitor<Blob>("Small Objects");
+
+            monitor.start();
+            monitor.walk(support.list(bucket), new ListingMonitor.Visitor<Blob>() {
+                @Override
+                public void visit(@Nonnull Blob blob, int index) {
+                    if( !blob.isContainer() && blob.getObjectName() != null && uploaded.contains(blob.getObjectName()) ) {
+                        listed.incrementAndGet();
+                    }
+                }
+            });
+            monitor.report(tm);
+            tm.out("Items/sec", String.format("%.2f", monitor.getElapsedMillis() <= 0L ? 0.0 : (monitor.getCount() * 1000.0)/monitor.getElapsedMillis()));
+            assertEquals("The listing does not contain every uploaded object", uploads.getCount(), listed.get());
+
+            results.clear();
+            removals.start();
+            for( final String objectName : new ArrayList<String>(uploaded) ) {
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long start = System.nanoTime();
+
+                        try {
+                            support.removeObject(bucket, objectName);
+                            removals.record(start);
+                        }
+                        catch( CloudException | InternalException e ) {
+                            removals.fail();
+                            throw e;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            await(results, "remove");
+            removals.stop();
+            removals.report(tm);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        assertEquals("Some small objects could not be uploaded", 0, uploads.getFailureCount());
+    }
+
+    @Test
+    public void transfer1MB() throws CloudException, InternalException, IOException {
+        checkTransfer(1L);
+    }
+
+    @Test
+    public void transfer100MB() throws CloudException, InternalException, IOException {
+        checkTransfer(100L);
+    }
+
+    @Test
+    public void transfer1GB() throws CloudException, InternalException, IOException {
+        checkTransfer(1024L);
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.storage.OfflineStoreRequest;
+import org.dasein.cloud.storage.OfflineStoreRequestStatus;
+import org.dasein.cloud.storage.OfflineStoreSupport;
+import org.dasein.cloud.test.DaseinTestManager;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps track of outstanding offline store requests across test runs. Offline requests typically take hours, far
+ * longer than a single run, so each request is written to a file (dasein.offline.tracker, by default in the temp
+ * directory) and checked again by later runs. Polling starts around the time requests usually complete and then
+ * backs off, with the typical completion time learned from the requests seen so far. Only requests seen pending by an
+ * earlier poll teach the completion time, so that requests finishing between runs do not count the gap between runs.
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class OfflineRequestTracker {
+    static private final Logger logger = Logger.getLogger(OfflineRequestTracker.class);
+
+    static private final HashMap<String,OfflineRequestTracker> trackers = new HashMap<String, OfflineRequestTracker>();
+
+    static private final String TYPICAL  = "typical.completion";
+    static private final String REQUEST  = "request.";
+
+    static private final long MINUTE       = 60000L;
+    static private final long MIN_INTERVAL = MINUTE;
+    static private final long MAX_AGE      = 7L * 24L * 60L * MINUTE;
+
+    /**
+     * Provides the tracker for the specified cloud and region, loading any requests left over from earlier runs.
+     * @param cloudName the name of the cloud the requests were made against
+     * @param regionId the region the requests were made in
+     * @return the shared tracker for that cloud and region
+     */
+    static public synchronized @Nonnull OfflineRequestTracker getInstance(@Nonnull String cloudName, @Nonnull String regionId) {
+        String key = (cloudName + "-" + regionId).replaceAll("[^A-Za-z0-9_.-]", "_");
+        OfflineRequestTracker tracker = trackers.get(key);
+
+        if( tracker == null ) {
+            String path = DaseinTestManager.getSystemProperty("dasein.offline.tracker");
+            File file;
+
+            if( path == null ) {
+                file = new File(System.getProperty("java.io.tmpdir"), "dasein-offline-" + key + ".properties");
+            }
+            else {
+                file = new File(path);
+            }
+            tracker = new OfflineRequestTracker(file);
+            trackers.put(key, tracker);
+        }
+        return tracker;
+    }
+
+    private final File       file;
+    private final Properties state = new Properties();
+
+    private OfflineRequestTracker(@Nonnull File file) {
+        this.file = file;
+        if( file.exists() ) {
+            try {
+                InputStream input = new FileInputStream(file);
+
+                try {
+                    state.load(input);
+                }
+                finally {
+                    input.close();
+                }
+            }
+            catch( IOException e ) {
+                logger.warn("Unable to load outstanding offline requests from " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Starts tracking a newly created request. The first status check is scheduled for half of the typical completion time.
+     * @param request the request to track
+     */
+    public synchronized void track(@Nonnull OfflineStoreRequest request) {
+        long now = System.currentTimeMillis();
+
+        state.setProperty(REQUEST + request.getBucketName() + "/" + request.getRequestId(), now + "," + (now + getTypicalCompletion()/2L) + ",0,0");
+        save();
+    }
+
+    /**
+     * @return the number of requests still outstanding
+     */
+    public synchronized int getOutstandingCount() {
+        int count = 0;
+
+        for( String key : state.stringPropertyNames() ) {
+            if( key.startsWith(REQUEST) ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the typical time in milliseconds between creating a request and its completion
+     */
+    public synchronized long getTypicalCompletion() {
+        String value = state.getProperty(TYPICAL);
+
+        if( value != null ) {
+            try {
+                return Long.parseLong(value);
+            }
+            catch( NumberFormatException ignore ) {
+                // ignore
+            }
+        }
+        return DaseinTestManager.getIntSystemProperty("dasein.offline.typical.minutes", 240) * MINUTE;
+    }
+
+    static private class Check {
+        private final String bucket;
+        private final long   created;
+        private final String key;
+        private final long   lastPending;
+        private final int    polls;
+        private final String requestId;
+
+        private OfflineStoreRequest request;
+        private boolean             unavailable;
+
+        private Check(@Nonnull String key, @Nonnull String bucket, @Nonnull String requestId, long created, int polls, long lastPending) {
+            this.key = key;
+            this.bucket = bucket;
+            this.requestId = requestId;
+            this.created = created;
+            this.polls = polls;
+            this.lastPending = lastPending;
+        }
+    }
+
+    /**
+     * Checks the status of every tracked request that is due for a check. Requests that succeeded are returned and
+     * no longer tracked; failed, expired and unreadable requests are dropped; the rest are rescheduled with backoff.
+     * The provider is queried without holding the tracker, so other tests may track requests meanwhile.
+     * @param support the offline store the requests were made against
+     * @return the requests that completed successfully since the last poll
+     * @throws InternalException an error occurred within Dasein Cloud checking a request
+     */
+    public @Nonnull List<OfflineStoreRequest> poll(@Nonnull OfflineStoreSupport support) throws InternalException {
+        ArrayList<Check> checks = new ArrayList<Check>();
+        long now = System.currentTimeMillis();
+
+        synchronized( this ) {
+            for( String key : state.stringPropertyNames() ) {
+                if( !key.startsWith(REQUEST) ) {
+                    continue;
+                }
+                String[] parts = state.getProperty(key).split(",");
+                String[] ids = key.substring(REQUEST.length()).split("/", 2);
+
+                // entries written before the last pending poll was recorded have only three parts
+                if( (parts.length != 3 && parts.length != 4) || ids.length != 2 ) {
+                    state.remove(key);
+                    continue;
+                }
+                long created, nextPoll, lastPending;
+                int polls;
+
+                try {
+                    created = Long.parseLong(parts[0]);
+                    nextPoll = Long.parseLong(parts[1]);
+                    polls = Integer.parseInt(parts[2]);
+                    lastPending = (parts.length > 3 ? Long.parseLong(parts[3]) : 0L);
+                }
+                catch( NumberFormatException e ) {
+                    logger.warn("Dropping unreadable offline request entry " + key + ": " + e.getMessage());
+                    state.remove(key);
+                    continue;
+                }
+                if( now - created > MAX_AGE ) {
+                    logger.info("Dropping offline request " + ids[1] + " for " + ids[0] + " after " + ((now - created)/MINUTE) + " minutes");
+                    state.remove(key);
+                    continue;
+                }
+                if( nextPoll <= now ) {
+                    checks.add(new Check(key, ids[0], ids[1], created, polls, lastPending));
+                }
+            }
+            save();
+        }
+        for( Check check : checks ) {
+            try {
+                check.request = support.getRequest(check.bucket, check.requestId);
+            }
+            catch( CloudException e ) {
+                logger.warn("Unable to check offline request " + check.requestId + " for " + check.bucket + ": " + e.getMessage());
+                check.unavailable = true;
+            }
+        }
+        ArrayList<OfflineStoreRequest> completed = new ArrayList<OfflineStoreRequest>();
+
+        if( checks.isEmpty() ) {
+            return completed;
+        }
+        synchronized( this ) {
+            for( Check check : checks ) {
+                if( state.getProperty(check.key) == null ) {
+                    // a concurrent poll has already settled this request
+                    continue;
+                }
+                if( check.unavailable ) {
+                    reschedule(check, now, check.lastPending);
+                }
+                else if( check.request == null || OfflineStoreRequestStatus.FAILED.equals(check.request.getStatus()) ) {
+                    state.remove(check.key);
+                }
+                else if( OfflineStoreRequestStatus.SUCCEEDED.equals(check.request.getStatus()) ) {
+                    state.remove(check.key);
+                    if( check.lastPending > 0L ) {
+                        // it completed somewhere between the last poll that saw it pending and this one
+                        learn((check.lastPending + now)/2L - check.created);
+                    }
+                    completed.add(check.request);
+                }
+                else {
+                    reschedule(check, now, now);
+                }
+            }
+            save();
+        }
+        return completed;
+    }
+
+    private void reschedule(@Nonnull Check check, long now, long lastPending) {
+        state.setProperty(check.key, check.created + "," + (now + getInterval(now - check.created, check.polls)) + "," + (check.polls + 1) + "," + lastPending);
+    }
+
+    /**
+     * Polls well before the typical completion time are wasted, so the first checks jump to the typical completion time;
+     * past it, checks start at an eighth of the typical time and double with each further poll.
+     */
+    private long getInterval(long age, int polls) {
+        long typical = getTypicalCompletion();
+
+        if( age < typical ) {
+            return Math.max(MIN_INTERVAL, typical - age);
+        }
+        long interval = Math.max(MIN_INTERVAL, typical/8L);
+
+        for( int i=1; i<polls && interval < typical; i++ ) {
+            interval *= 2L;
+        }
+        return Math.min(interval, typical);
+    }
+
+    private void learn(long completion) {
+        // exponential moving average so that a single slow request does not swing the schedule
+        long typical = getTypicalCompletion();
+
+        state.setProperty(TYPICAL, String.valueOf((typical * 3L + completion)/4L));
+    }
+
+    private void save() {
+        try {
+            OutputStream output = new FileOutputStream(file);
+
+            try {
+                state.store(output, "Outstanding Dasein Cloud offline store requests");
+            }
+            finally {
+                output.close();
+            }
+        }
+        catch( IOException e ) {
+            logger.warn("Unable to save outstanding offline requests to " + file + ": " + e.getMessage());
+        }
+    }
+}
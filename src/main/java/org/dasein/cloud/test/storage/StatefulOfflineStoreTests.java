@@ -133,6 +133,8 @@ public class StatefulOfflineStoreTests {
             return;
         }
 
+        OfflineRequestTracker tracker = OfflineRequestTracker.getInstance(tm.getProvider().getCloudName(), tm.getContext().getRegionId());
+
         /* Glacier does not allow listing (inventorying) recently-created vaults.
            They cannot be listed for up to 24 hours after they are created. So in this
            test we cheat and look for any existing vaults that we can list.
@@ -142,6 +144,8 @@ public class StatefulOfflineStoreTests {
             try {
                 OfflineStoreRequest listRequest = offlineStore.createListRequest(bucket);
                 assertListRequest(bucket, listRequest);
+                // the result will not be ready for hours; a later run of StatelessOfflineStoreTests.listRequests validates it
+                tracker.track(listRequest);
 
                 OfflineStoreRequest gotRequest = offlineStore.getRequest(bucket, listRequest.getRequestId());
                 assertListRequest(bucket, gotRequest);
@@ -177,6 +181,7 @@ public class StatefulOfflineStoreTests {
             offlineStore.removeBucket(newBucket);
         }
         assertTrue("Expected list request creation to fail on a new bucket", failed);
+        tm.out("Outstanding Tracked Requests", tracker.getOutstandingCount());
     }
 
     private static void assertListRequest(String bucket, OfflineStoreRequest listRequest) {
@@ -53,6 +53,11 @@ import static org.junit.Assume.assumeTrue;
 public class StatelessObjectStoreTests {
     static private final Random random = new Random();
 
+    /**
+     * Only the first entries of a listing are written to the log so that huge listings do not flood it.
+     */
+    static private final int MAX_LOGGED_ITEMS = 100;
+
     static private DaseinTestManager tm;
 
     @BeforeClass
@@ -187,6 +192,27 @@ public class StatelessObjectStoreTests {
         tm.out("Size", blob.getSize());
     }
 
+    private @Nonnull ListingMonitor<Blob> checkListing(@Nonnull String label, @Nonnull final BlobStoreSupport support, @Nullable final Blob parent) throws CloudException, InternalException {
+        ListingMonitor<Blob> monitor = new ListingMonitor<Blob>(label);
+
+        monitor.start();
+        Iterable<Blob> items = support.list(parent == null ? null : parent.getBucketName());
+
+        assertNotNull("Items returned may not be null", items);
+        monitor.walk(items, new ListingMonitor.Visitor<Blob>() {
+            @Override
+            public void visit(@Nonnull Blob item, int index) throws CloudException, InternalException {
+                if( index < MAX_LOGGED_ITEMS ) {
+                    tm.out("Item", item);
+                }
+                assertBlob(support, item, parent, null);
+            }
+        });
+        monitor.report(tm);
+        monitor.assertWithinBudget();
+        return monitor;
+    }
+
     @Test
     public void listItemsUnderRoot() throws CloudException, InternalException {
         StorageServices services = tm.getProvider().getStorageServices();
@@ -202,14 +228,8 @@ public class StatelessObjectStoreTests {
             tm.ok("No object storage is supported in " + tm.getContext().getRegionId() + " of " + tm.getProvider().getCloudName());
             return;
         }
-        Iterable<Blob> items = support.list(null);
-        int count = 0;
+        int count = checkListing("Root Items", support, null).getCount();
 
-        assertNotNull("Items returned may not be null", items);
-        for( Blob item : items ) {
-            count++;
-            tm.out("Item", item);
-        }
         tm.out("Total Root Items", count);
         if( count < 1 ) {
             if( !support.isSubscribed() ) {
@@ -219,11 +239,6 @@ public class StatelessObjectStoreTests {
                 tm.warn("No items were returned, so it is impossible to verify the validity of this test");
             }
         }
-        else {
-            for( Blob item : items ) {
-                assertBlob(support, item, null, null);
-            }
-        }
     }
 
     @Test
@@ -389,14 +404,8 @@ public class StatelessObjectStoreTests {
             return;
         }
         if( testRootBucket != null ) {
-            Iterable<Blob> items = support.list(testRootBucket.getBucketName());
-            int count = 0;
+            int count = checkListing("Bucket Items", support, testRootBucket).getCount();
 
-            assertNotNull("Items returned may not be null", items);
-            for( Blob item : items ) {
-                count++;
-                tm.out("Item", item);
-            }
             tm.out("Total Items in " + testRootBucket.getBucketName(), count);
             if( count < 1 ) {
                 if( !support.isSubscribed() ) {
@@ -406,11 +415,6 @@ public class StatelessObjectStoreTests {
                     tm.warn("No items were returned, so it is impossible to verify the validity of this test");
                 }
             }
-            else {
-                for( Blob item : items ) {
-                    assertBlob(support, item, testRootBucket, null);
-                }
-            }
         }
         else {
             if( !support.isSubscribed() ) {
@@ -634,14 +638,8 @@ public class StatelessObjectStoreTests {
             return;
         }
         if( testChildBucket != null ) {
-            Iterable<Blob> items = support.list(testChildBucket.getBucketName());
-            int count = 0;
+            int count = checkListing("Bucket Items", support, testChildBucket).getCount();
 
-            assertNotNull("Items returned may not be null", items);
-            for( Blob item : items ) {
-                count++;
-                tm.out("Item", item);
-            }
             tm.out("Total Items in " + testChildBucket.getBucketName(), count);
             if( count < 1 ) {
                 if( !support.isSubscribed() ) {
@@ -651,11 +649,6 @@ public class StatelessObjectStoreTests {
                     tm.warn("No items were returned, so it is impossible to verify the validity of this test");
                 }
             }
-            else {
-                for( Blob item : items ) {
-                    assertBlob(support, item, testChildBucket, null);
-                }
-            }
         }
         else {
             if( !support.isSubscribed() ) {
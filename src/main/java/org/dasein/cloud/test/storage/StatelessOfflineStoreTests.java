@@ -36,6 +36,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
 
+import javax.annotation.Nonnull;
 import java.util.Locale;
 
 import static junit.framework.Assert.*;
@@ -105,15 +106,23 @@ public class StatelessOfflineStoreTests {
             return;
         }
 
+        ListingMonitor<Blob> monitor = new ListingMonitor<Blob>("Buckets");
+
+        monitor.start();
         Iterable<Blob> buckets = offlineStore.list(null);
         assertNotNull(buckets);
 
-        for (Blob bucket : buckets) {
-            assertNotNull(bucket);
-            assertNotNull(bucket.getBucketName());
-            assertNotNull(bucket.getLocation());
-            assertNull(bucket.getObjectName());
-        }
+        monitor.walk(buckets, new ListingMonitor.Visitor<Blob>() {
+            @Override
+            public void visit(@Nonnull Blob bucket, int index) {
+                assertNotNull(bucket);
+                assertNotNull(bucket.getBucketName());
+                assertNotNull(bucket.getLocation());
+                assertNull(bucket.getObjectName());
+            }
+        });
+        monitor.report(tm);
+        monitor.assertWithinBudget();
     }
 
     @Test
@@ -137,33 +146,48 @@ public class StatelessOfflineStoreTests {
 
                 if (request.getAction() == OfflineStoreRequestAction.LIST) {
                     if (request.getStatus() == OfflineStoreRequestStatus.SUCCEEDED) {
-                        Iterable<Blob> listRequestResult = offlineStore.getListRequestResult(
-                                bucket, request.getRequestId());
-                        tm.out("Got results of list request " + request.getRequestId());
-                        for (Blob blob : listRequestResult) {
-                            if (blob != null) {
-                                tm.out("Found blob in offline storage list for bucket " +
-                                        bucket + ": " + blob + " (size: " + blob.getSize() + ")");
-                                // since we don't know anything about what we've just listed,
-                                // all we can do is assert that the resulting Blob object is
-                                // well-formed
-                                assertNotNull(blob.getObjectName());
-                                assertNotNull(blob.getBucketName());
-                                assertNotNull(blob.getSize());
-                            }
-                        }
-                        // no guarantee there are any blobs in the archive..
-                        assertNotNull(listRequestResult);
+                        assertListRequestResult(offlineStore, bucket, request.getRequestId());
                         listedSomething = true;
                     }
                 }
             }
         }
+
+        // pick up the list requests made by earlier runs of StatefulOfflineStoreTests that have since completed
+        OfflineRequestTracker tracker = OfflineRequestTracker.getInstance(tm.getProvider().getCloudName(), tm.getContext().getRegionId());
+
+        for (OfflineStoreRequest request : tracker.poll(offlineStore)) {
+            if (request.getAction() == OfflineStoreRequestAction.LIST) {
+                assertListRequestResult(offlineStore, request.getBucketName(), request.getRequestId());
+                listedSomething = true;
+            }
+        }
+        tm.out("Outstanding Tracked Requests", tracker.getOutstandingCount());
+        tm.out("Typical Completion (min)", tracker.getTypicalCompletion()/60000L);
         if (!listedSomething) {
             tm.warn("There were no existing list requests to read output from!");
         }
     }
 
+    private void assertListRequestResult(OfflineStoreSupport offlineStore, String bucket, String requestId) throws CloudException, InternalException {
+        Iterable<Blob> listRequestResult = offlineStore.getListRequestResult(bucket, requestId);
+        tm.out("Got results of list request " + requestId);
+        // no guarantee there are any blobs in the archive..
+        assertNotNull(listRequestResult);
+        for (Blob blob : listRequestResult) {
+            if (blob != null) {
+                tm.out("Found blob in offline storage list for bucket " +
+                        bucket + ": " + blob + " (size: " + blob.getSize() + ")");
+                // since we don't know anything about what we've just listed,
+                // all we can do is assert that the resulting Blob object is
+                // well-formed
+                assertNotNull(blob.getObjectName());
+                assertNotNull(blob.getBucketName());
+                assertNotNull(blob.getSize());
+            }
+        }
+    }
+
     private OfflineStoreSupport getSupportOrBail() {
         StorageServices services = tm.getProvider().getStorageServices();
 
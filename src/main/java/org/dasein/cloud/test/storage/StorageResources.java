@@ -23,21 +23,24 @@ import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.CloudProvider;
 import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ResourceNotFoundException;
 import org.dasein.cloud.storage.Blob;
 import org.dasein.cloud.storage.BlobStoreSupport;
 import org.dasein.cloud.storage.StorageServices;
 import org.dasein.cloud.test.DaseinTestManager;
+import org.dasein.cloud.test.ResourceRegistry;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * [Class Documentation]
@@ -50,10 +53,11 @@ public class StorageResources {
 
     static private final Random random = new Random();
 
-    private final HashMap<String,Blob> testChildBuckets = new HashMap<String, Blob>();
-    private final HashMap<String,Blob> testChildObjects = new HashMap<String, Blob>();
-    private final HashMap<String,Blob> testRootBuckets = new HashMap<String, Blob>();
-    private final HashMap<String,Blob> testRootObjects = new HashMap<String, Blob>();
+    private final ResourceRegistry<Blob> registry = new ResourceRegistry<Blob>();
+    private final ResourceRegistry.Labels<Blob> testChildBuckets = registry.forType("childBuckets");
+    private final ResourceRegistry.Labels<Blob> testChildObjects = registry.forType("childObjects");
+    private final ResourceRegistry.Labels<Blob> testRootBuckets = registry.forType("rootBuckets");
+    private final ResourceRegistry.Labels<Blob> testRootObjects = registry.forType("rootObjects");
 
     private CloudProvider provider;
 
@@ -71,101 +75,71 @@ public class StorageResources {
                 BlobStoreSupport support = services.getBlobStoreSupport();
 
                 if( support != null ) {
-                    for( Map.Entry<String,Blob> entry : testRootObjects.entrySet() ) {
-                        if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                            try {
-                                String bucket = entry.getValue().getBucketName();
-                                String object = entry.getValue().getObjectName();
-
-                                if( object == null ) {
-                                    continue; // not possible
-                                }
-                                Blob blob = support.getObject(bucket, object);
+                    int threads = DaseinTestManager.getIntSystemProperty("dasein.teardown.threads", 10);
+                    ExecutorService pool = Executors.newFixedThreadPool(threads);
+                    AtomicInteger removed = new AtomicInteger();
+                    long start = System.currentTimeMillis();
 
-                                if( blob != null ) {
-                                    support.removeObject(bucket, object);
-                                    count++;
-                                }
-                                else {
-                                    count++;
-                                }
+                    try {
+                        ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+                        for( Map.Entry<String,Blob> entry : testRootObjects.entrySet() ) {
+                            if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
+                                results.add(removeObject(support, pool, entry.getValue().getBucketName(), entry.getValue().getObjectName(), true, removed));
                             }
-                            catch( Throwable t ) {
-                                logger.warn("Failed to remove test root object " + entry.getValue() + ": " + t.getMessage());
+                        }
+                        for( Map.Entry<String,Blob> entry : testChildObjects.entrySet() ) {
+                            if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
+                                results.add(removeObject(support, pool, entry.getValue().getBucketName(), entry.getValue().getObjectName(), true, removed));
                             }
                         }
-                    }
+                        count += await(results);
 
-                    for( Map.Entry<String,Blob> entry : testChildObjects.entrySet() ) {
-                        if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                            try {
-                                String bucket = entry.getValue().getBucketName();
-                                String object = entry.getValue().getObjectName();
+                        // child buckets go first so that their parents are empty by the time the root buckets are removed
+                        for( Map.Entry<String,Blob> entry : testChildBuckets.entrySet() ) {
+                            if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
+                                try {
+                                    String bucket = entry.getValue().getBucketName();
 
-                                if( object == null ) {
-                                    continue; // not possible
-                                }
-                                Blob blob = support.getObject(bucket, object);
-
-                                if( blob != null ) {
-                                    support.removeObject(bucket, object);
-                                    count++;
+                                    if( bucket == null ) {
+                                        bucket = entry.getValue().getObjectName();
+                                        if( bucket == null ) {
+                                            continue; // not possible
+                                        }
+                                    }
+                                    else {
+                                        bucket = bucket + "/" + entry.getValue().getObjectName();
+                                    }
+                                    count += removeBucket(support, pool, bucket, removed);
                                 }
-                                else {
-                                    count++;
+                                catch( Throwable t ) {
+                                    logger.warn("Failed to remove test child bucket " + entry.getValue() + ": " + t.getMessage());
                                 }
                             }
-                            catch( Throwable t ) {
-                                logger.warn("Failed to remove test child object " + entry.getValue() + ": " + t.getMessage());
-                            }
                         }
-                    }
-                    for( Map.Entry<String,Blob> entry : testChildBuckets.entrySet() ) {
-                        if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                            try {
-                                String bucket = entry.getValue().getBucketName();
+                        for( Map.Entry<String,Blob> entry : testRootBuckets.entrySet() ) {
+                            if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
+                                try {
+                                    String bucket = entry.getValue().getBucketName();
 
-                                if( bucket == null ) {
-                                    bucket = entry.getValue().getObjectName();
                                     if( bucket == null ) {
                                         continue; // not possible
                                     }
+                                    count += removeBucket(support, pool, bucket, removed);
                                 }
-                                else {
-                                    bucket = bucket + "/" + entry.getValue().getObjectName();
+                                catch( Throwable t ) {
+                                    logger.warn("Failed to remove test root bucket " + entry.getValue() + ": " + t.getMessage());
                                 }
-                                Blob blob = support.getBucket(bucket);
-
-                                if( blob != null ) {
-                                    support.removeBucket(bucket);
-                                    count++;
-                                }
-                                else {
-                                    count++;
-                                }
-                            }
-                            catch( Throwable t ) {
-                                logger.warn("Failed to remove test child bucket " + entry.getValue() + ": " + t.getMessage());
                             }
                         }
                     }
-                    for( Map.Entry<String,Blob> entry : testRootBuckets.entrySet() ) {
-                        if( !entry.getKey().equals(DaseinTestManager.STATELESS) ) {
-                            try {
-                                Blob blob = support.getBucket(entry.getValue().getBucketName());
-
-                                if( blob != null ) {
-                                    support.removeBucket(entry.getValue().getBucketName());
-                                    count++;
-                                }
-                                else {
-                                    count++;
-                                }
-                            }
-                            catch( Throwable t ) {
-                                logger.warn("Failed to remove test root bucket " + entry.getValue() + ": " + t.getMessage());
-                            }
-                        }
+                    finally {
+                        pool.shutdownNow();
+                    }
+                    long elapsed = System.currentTimeMillis() - start;
+
+                    if( removed.get() > 0 ) {
+                        logger.info("Removed " + removed.get() + " test objects in " + elapsed + "ms (" + String.format("%.2f", elapsed <= 0L ? 0.0 : (removed.get() * 1000.0)/elapsed) + "/sec)");
                     }
                 }
             }
@@ -173,10 +147,103 @@ public class StorageResources {
         catch( Throwable ignore ) {
             // ignore
         }
+        TestPayload.releaseAll();
         provider.close();
         return count;
     }
 
+    private int await(@Nonnull ArrayList<Future<Boolean>> results) throws InterruptedException {
+        int count = 0;
+
+        for( Future<Boolean> result : results ) {
+            try {
+                if( result.get() ) {
+                    count++;
+                }
+            }
+            catch( ExecutionException e ) {
+                logger.warn("Failed to remove test object: " + e.getCause().getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes a test object in the background. Objects tracked by label may already be gone, so they are looked up
+     * first; objects just returned by a bucket listing are removed directly to save a call per object, and a
+     * "not found" response for them is counted as already removed.
+     */
+    private @Nonnull Future<Boolean> removeObject(@Nonnull final BlobStoreSupport support, @Nonnull ExecutorService pool, @Nullable final String bucket, @Nullable final String object, final boolean verify, @Nonnull final AtomicInteger removed) {
+        return pool.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                if( object == null ) {
+                    return false; // not possible
+                }
+                if( !verify ) {
+                    try {
+                        support.removeObject(bucket, object);
+                    }
+                    catch( ResourceNotFoundException ignore ) {
+                        // already gone
+                    }
+                }
+                else if( support.getObject(bucket, object) != null ) {
+                    support.removeObject(bucket, object);
+                }
+                int total = removed.incrementAndGet();
+
+                if( total % 100 == 0 ) {
+                    logger.info("Removed " + total + " test objects...");
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Empties a test bucket, removing its objects concurrently and any nested buckets depth first, then removes the bucket itself.
+     * @return the number of buckets removed or found already gone
+     */
+    private int removeBucket(@Nonnull BlobStoreSupport support, @Nonnull ExecutorService pool, @Nonnull String bucket, @Nonnull AtomicInteger removed) throws CloudException, InternalException, InterruptedException {
+        if( support.getBucket(bucket) == null ) {
+            return 1;
+        }
+        ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        ArrayList<String> nested = new ArrayList<String>();
+
+        for( Blob blob : support.list(bucket) ) {
+            if( blob.isContainer() ) {
+                String name = blob.getBucketName();
+
+                // same naming as the tracked child buckets: a nested bucket may be reported as parent plus name
+                if( name != null && blob.getObjectName() != null ) {
+                    name = name + "/" + blob.getObjectName();
+                }
+                if( name != null && !name.equals(bucket) ) {
+                    nested.add(name);
+                }
+            }
+            else {
+                results.add(removeObject(support, pool, blob.getBucketName() == null ? bucket : blob.getBucketName(), blob.getObjectName(), false, removed));
+            }
+        }
+        await(results);
+
+        int count = 0;
+
+        for( String child : nested ) {
+            try {
+                count += removeBucket(support, pool, child, removed);
+            }
+            catch( Throwable t ) {
+                logger.warn("Failed to remove nested bucket " + child + ": " + t.getMessage());
+            }
+        }
+        support.removeBucket(bucket);
+        return count + 1;
+    }
+
     public int report() {
         boolean header = false;
         int count = 0;
@@ -217,7 +284,7 @@ public class StorageResources {
         return count;
     }
 
-    public @Nullable Blob getTestRootBucket(@Nonnull String label, boolean provisionIfNull, @Nullable String namePrefix) {
+    public @Nullable Blob getTestRootBucket(@Nonnull final String label, boolean provisionIfNull, @Nullable final String namePrefix) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,Blob> entry : testRootBuckets.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -239,11 +306,16 @@ public class StorageResources {
             StorageServices services = provider.getStorageServices();
 
             if( services != null ) {
-                BlobStoreSupport support = services.getBlobStoreSupport();
+                final BlobStoreSupport support = services.getBlobStoreSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionRootBucket(support, label, namePrefix == null ? "dsnbkt" : namePrefix, false, true);
+                        return testRootBuckets.provision(label, new Callable<Blob>() {
+                            @Override
+                            public Blob call() throws Exception {
+                                return provisionRootBucket(support, label, namePrefix == null ? "dsnbkt" : namePrefix, false, true);
+                            }
+                        });
                     }
                     catch( Throwable t ) {
                         logger.warn("Unable to provision root test bucket: " + t.getMessage());
@@ -254,7 +326,7 @@ public class StorageResources {
         return null;
     }
 
-    public @Nullable Blob getTestChildBucket(@Nonnull String label, boolean provisionIfNull, @Nullable String parentBucket, @Nullable String namePrefix) {
+    public @Nullable Blob getTestChildBucket(@Nonnull final String label, boolean provisionIfNull, @Nullable String parentBucket, @Nullable final String namePrefix) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,Blob> entry : testChildBuckets.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -276,7 +348,7 @@ public class StorageResources {
             StorageServices services = provider.getStorageServices();
 
             if( services != null ) {
-                BlobStoreSupport support = services.getBlobStoreSupport();
+                final BlobStoreSupport support = services.getBlobStoreSupport();
 
                 if( support != null ) {
                     try {
@@ -291,7 +363,14 @@ public class StorageResources {
                                 return null;
                             }
                         }
-                        return provisionChildBucket(support, label, parentBucket, namePrefix == null ? "dsnbkt" : namePrefix, false, true);
+                        final String parentName = parentBucket;
+
+                        return testChildBuckets.provision(label, new Callable<Blob>() {
+                            @Override
+                            public Blob call() throws Exception {
+                                return provisionChildBucket(support, label, parentName, namePrefix == null ? "dsnbkt" : namePrefix, false, true);
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -302,7 +381,7 @@ public class StorageResources {
         return null;
     }
 
-    public @Nullable Blob getTestRootObject(@Nonnull String label, boolean provisionIfNull, @Nullable String namePrefix) {
+    public @Nullable Blob getTestRootObject(@Nonnull final String label, boolean provisionIfNull, @Nullable final String namePrefix) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,Blob> entry : testRootObjects.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -324,11 +403,16 @@ public class StorageResources {
             StorageServices services = provider.getStorageServices();
 
             if( services != null ) {
-                BlobStoreSupport support = services.getBlobStoreSupport();
+                final BlobStoreSupport support = services.getBlobStoreSupport();
 
                 if( support != null ) {
                     try {
-                        return provisionRootObject(support, label, namePrefix == null ? "dsnobj" : namePrefix);
+                        return testRootObjects.provision(label, new Callable<Blob>() {
+                            @Override
+                            public Blob call() throws Exception {
+                                return provisionRootObject(support, label, namePrefix == null ? "dsnobj" : namePrefix);
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -339,7 +423,7 @@ public class StorageResources {
         return null;
     }
 
-    public @Nullable Blob getTestChildObject(@Nonnull String label, boolean provisionIfNull, @Nullable String parentBucket, @Nullable String namePrefix) {
+    public @Nullable Blob getTestChildObject(@Nonnull final String label, boolean provisionIfNull, @Nullable String parentBucket, @Nullable final String namePrefix) {
         if( label.equals(DaseinTestManager.STATELESS) ) {
             for( Map.Entry<String,Blob> entry : testChildObjects.entrySet() ) {
                 if( !entry.getKey().startsWith(DaseinTestManager.REMOVED) ) {
@@ -361,7 +445,7 @@ public class StorageResources {
             StorageServices services = provider.getStorageServices();
 
             if( services != null ) {
-                BlobStoreSupport support = services.getOnlineStorageSupport();
+                final BlobStoreSupport support = services.getOnlineStorageSupport();
 
                 if( support != null ) {
                     try {
@@ -376,7 +460,14 @@ public class StorageResources {
                                 return null;
                             }
                         }
-                        return provisionChildObject(support, label, parentBucket, namePrefix == null ? "dsnobj" : namePrefix);
+                        final String parentName = parentBucket;
+
+                        return testChildObjects.provision(label, new Callable<Blob>() {
+                            @Override
+                            public Blob call() throws Exception {
+                                return provisionChildObject(support, label, parentName, namePrefix == null ? "dsnobj" : namePrefix);
+                            }
+                        });
                     }
                     catch( Throwable ignore ) {
                         // ignore
@@ -515,12 +606,7 @@ public class StorageResources {
         String name = (useName ? namePrefix : (namePrefix + random.nextInt(10000)));
         Blob blob = support.createBucket(name, findFreeName);
 
-        synchronized( testRootBuckets ) {
-            while( testRootBuckets.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testRootBuckets.put(label, blob);
-        }
+        testRootBuckets.register(label, blob);
         return blob;
     }
 
@@ -529,80 +615,43 @@ public class StorageResources {
 
         Blob blob = support.createBucket(parentBucket + "/" + name, findFreeName);
 
-        synchronized( testChildBuckets ) {
-            while( testChildBuckets.containsKey(label) ) {
-                label = label + random.nextInt(9);
-            }
-            testChildBuckets.put(label, blob);
-        }
+        testChildBuckets.register(label, blob);
         return blob;
     }
 
-    public @Nonnull Blob provisionRootObject(@Nonnull BlobStoreSupport support, @Nonnull String label, @Nonnull String namePrefix, @Nullable String ... lines) throws CloudException, InternalException {
-        try {
-            File file = File.createTempFile("dsntst", "txt");
+    /**
+     * Provides the payload for test objects that do not specify their content. The default is a single line of text;
+     * setting dasein.storage.payload.size switches to pseudo-random content of that many bytes.
+     * @return the default test object payload
+     */
+    public @Nonnull TestPayload getDefaultPayload() {
+        int size = DaseinTestManager.getIntSystemProperty("dasein.storage.payload.size", 0);
 
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
+        if( size > 0 ) {
+            return TestPayload.getInstance(size, size);
+        }
+        return TestPayload.getInstance("This is a test of Dasein Cloud");
+    }
 
-            if( lines == null ) {
-                writer.write("This is a test of Dasein Cloud");
-                writer.newLine();
-            }
-            else {
-                for( String line : lines ) {
-                    writer.write(line);
-                    writer.newLine();
-                }
-            }
-            writer.flush();
-            writer.close();
+    public @Nonnull Blob provisionRootObject(@Nonnull BlobStoreSupport support, @Nonnull String label, @Nonnull String namePrefix, @Nullable String ... lines) throws CloudException, InternalException {
+        return provisionRootObject(support, label, namePrefix, lines == null || lines.length < 1 ? getDefaultPayload() : TestPayload.getInstance(lines));
+    }
 
-            Blob blob = support.upload(file, null, namePrefix + random.nextInt(10000) + ".txt");
+    public @Nonnull Blob provisionRootObject(@Nonnull BlobStoreSupport support, @Nonnull String label, @Nonnull String namePrefix, @Nonnull TestPayload payload) throws CloudException, InternalException {
+        Blob blob = support.upload(payload.getFile(), null, namePrefix + random.nextInt(10000) + payload.getExtension());
 
-            synchronized( testChildObjects ) {
-                while( testChildObjects.containsKey(label) ) {
-                    label = label + random.nextInt(9);
-                }
-                testChildObjects.put(label, blob);
-            }
-            return blob;
-        }
-        catch( IOException e ) {
-            throw new InternalException(e);
-        }
+        testRootObjects.register(label, blob);
+        return blob;
     }
 
     public @Nonnull Blob provisionChildObject(@Nonnull BlobStoreSupport support, @Nonnull String label, @Nonnull String parentBucket, @Nonnull String namePrefix, @Nullable String ... lines) throws CloudException, InternalException {
-        try {
-            File file = File.createTempFile("dsntst", "txt");
-
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
-
-            if( lines == null ) {
-                writer.write("This is a test of Dasein Cloud");
-                writer.newLine();
-            }
-            else {
-                for( String line : lines ) {
-                    writer.write(line);
-                    writer.newLine();
-                }
-            }
-            writer.flush();
-            writer.close();
+        return provisionChildObject(support, label, parentBucket, namePrefix, lines == null || lines.length < 1 ? getDefaultPayload() : TestPayload.getInstance(lines));
+    }
 
-            Blob blob = support.upload(file, parentBucket, namePrefix + random.nextInt(10000) + ".txt");
+    public @Nonnull Blob provisionChildObject(@Nonnull BlobStoreSupport support, @Nonnull String label, @Nonnull String parentBucket, @Nonnull String namePrefix, @Nonnull TestPayload payload) throws CloudException, InternalException {
+        Blob blob = support.upload(payload.getFile(), parentBucket, namePrefix + random.nextInt(10000) + payload.getExtension());
 
-            synchronized( testChildObjects ) {
-                while( testChildObjects.containsKey(label) ) {
-                    label = label + random.nextInt(9);
-                }
-                testChildObjects.put(label, blob);
-            }
-            return blob;
-        }
-        catch( IOException e ) {
-            throw new InternalException(e);
-        }
+        testChildObjects.register(label, blob);
+        return blob;
     }
 }
@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.test.storage;
+
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deterministic content for test objects. A payload is either a fixed set of text lines or a pseudo-random
+ * byte sequence of any size derived from a seed, so its MD5 checksum is known before anything is uploaded.
+ * <p>
+ * {@link org.dasein.cloud.storage.BlobStoreSupport#upload(java.io.File, String, String)} only accepts files, so
+ * each distinct payload is generated once through a memory-mapped buffer into a single backing file that is
+ * shared by every upload of that payload and removed by {@link #releaseAll()}.
+ * </p>
+ * @version 2015.09 initial version
+ * @since 2015.09
+ */
+public class TestPayload {
+    static private final ConcurrentHashMap<String,TestPayload> payloads = new ConcurrentHashMap<String, TestPayload>();
+
+    /**
+     * Size of each mapped region while generating or reading a payload file.
+     */
+    static public final int REGION_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Provides the payload holding the specified lines of text, each followed by the platform line separator.
+     * @param lines the lines of text in the payload
+     * @return the shared payload for those lines
+     */
+    static public @Nonnull TestPayload getInstance(@Nonnull String ... lines) {
+        StringBuilder str = new StringBuilder();
+
+        for( String line : lines ) {
+            str.append(line);
+            str.append(System.getProperty("line.separator"));
+        }
+        String content = str.toString();
+        String key = "txt:" + content;
+        TestPayload payload = payloads.get(key);
+
+        if( payload == null ) {
+            payloads.putIfAbsent(key, new TestPayload(content.getBytes(), 0L, 0L, ".txt"));
+            payload = payloads.get(key);
+        }
+        return payload;
+    }
+
+    /**
+     * Provides a pseudo-random payload of the specified size. The same size and seed always produce the same bytes.
+     * @param size the size of the payload in bytes
+     * @param seed the seed for the content
+     * @return the shared payload for the size and seed
+     */
+    static public @Nonnull TestPayload getInstance(long size, long seed) {
+        String key = "rnd:" + size + ":" + seed;
+        TestPayload payload = payloads.get(key);
+
+        if( payload == null ) {
+            payloads.putIfAbsent(key, new TestPayload(null, size, seed, ".bin"));
+            payload = payloads.get(key);
+        }
+        return payload;
+    }
+
+    /**
+     * Deletes the backing files of every payload generated so far. Payloads remain usable and are regenerated on demand.
+     */
+    static public void releaseAll() {
+        for( TestPayload payload : payloads.values() ) {
+            payload.release();
+        }
+    }
+
+    private final byte[] content;
+    private final String extension;
+    private final long   seed;
+    private final long   size;
+
+    private File   file;
+    private String md5;
+
+    private TestPayload(byte[] content, long size, long seed, @Nonnull String extension) {
+        this.content = content;
+        this.extension = extension;
+        this.seed = seed;
+        this.size = (content == null ? size : content.length);
+    }
+
+    /**
+     * @return the extension to use for object names carrying this payload
+     */
+    public @Nonnull String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Provides the backing file for this payload, generating it the first time it is needed.
+     * @return a file holding exactly the bytes of this payload
+     * @throws InternalException the payload file could not be written
+     */
+    public synchronized @Nonnull File getFile() throws InternalException {
+        if( file == null || !file.exists() ) {
+            try {
+                file = generate();
+            }
+            catch( IOException e ) {
+                throw new InternalException(e);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return the hex encoded MD5 checksum of this payload
+     * @throws InternalException the checksum could not be calculated
+     */
+    public synchronized @Nonnull String getMd5() throws InternalException {
+        if( md5 == null ) {
+            getFile();
+        }
+        return md5;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Checks a file, typically a download of an object carrying this payload, against the size and checksum of this payload.
+     * @param target the file to check
+     * @return true if the file holds exactly the bytes of this payload
+     * @throws InternalException the file could not be read
+     */
+    public boolean matches(@Nonnull File target) throws InternalException {
+        return (target.length() == size && getMd5().equals(md5(target)));
+    }
+
+    /**
+     * Calculates the MD5 checksum of a file by streaming it through the digest one mapped region at a time, so even
+     * very large files are checked without reading them onto the heap.
+     * @param target the file to digest
+     * @return the hex encoded MD5 checksum of the file
+     * @throws InternalException the file could not be read
+     */
+    static public @Nonnull String md5(@Nonnull File target) throws InternalException {
+        MessageDigest digest = newDigest();
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(target, "r");
+
+            try {
+                FileChannel channel = raf.getChannel();
+                long length = channel.size();
+                long position = 0L;
+
+                while( position < length ) {
+                    int count = (int)Math.min(REGION_SIZE, length - position);
+
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, count));
+                    position += count;
+                }
+            }
+            finally {
+                raf.close();
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        return toHex(digest.digest());
+    }
+
+    private @Nonnull File generate() throws IOException, InternalException {
+        File target = File.createTempFile("dsntst", extension);
+        MessageDigest digest = newDigest();
+        RandomAccessFile raf = new RandomAccessFile(target, "rw");
+
+        target.deleteOnExit();
+        try {
+            FileChannel channel = raf.getChannel();
+            long state = (seed == 0L ? 0x9E3779B97F4A7C15L : seed);
+            long position = 0L;
+
+            raf.setLength(size);
+            while( position < size ) {
+                int length = (int)Math.min(REGION_SIZE, size - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+
+                if( content != null ) {
+                    region.put(content, (int)position, length);
+                }
+                else {
+                    // xorshift64, written a long at a time with the tail taking the low order bytes of one more value
+                    while( region.remaining() >= 8 ) {
+                        state ^= (state << 13);
+                        state ^= (state >>> 7);
+                        state ^= (state << 17);
+                        region.putLong(state);
+                    }
+                    if( region.hasRemaining() ) {
+                        state ^= (state << 13);
+                        state ^= (state >>> 7);
+                        state ^= (state << 17);
+                        ByteBuffer tail = ByteBuffer.allocate(8).putLong(0, state);
+
+                        while( region.hasRemaining() ) {
+                            region.put(tail.get());
+                        }
+                    }
+                }
+                region.flip();
+                digest.update(region);
+                region.force();
+                position += length;
+            }
+        }
+        finally {
+            raf.close();
+        }
+        md5 = toHex(digest.digest());
+        return target;
+    }
+
+    private synchronized void release() {
+        if( file != null ) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            file = null;
+        }
+    }
+
+    static @Nonnull MessageDigest newDigest() throws InternalException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    static @Nonnull String toHex(@Nonnull byte[] bytes) {
+        StringBuilder str = new StringBuilder();
+
+        for( byte b : bytes ) {
+            str.append(String.format("%02x", b & 0xff));
+        }
+        return str.toString();
+    }
+}